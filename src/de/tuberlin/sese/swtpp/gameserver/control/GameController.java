@@ -1,11 +1,22 @@
 package de.tuberlin.sese.swtpp.gameserver.control;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
 
+import de.tuberlin.sese.swtpp.gameserver.model.ArchivedGame;
+import de.tuberlin.sese.swtpp.gameserver.model.Bot;
 import de.tuberlin.sese.swtpp.gameserver.model.Game;
 import de.tuberlin.sese.swtpp.gameserver.model.Player;
 import de.tuberlin.sese.swtpp.gameserver.model.User;
+import de.tuberlin.sese.swtpp.gameserver.persistence.GameArchive;
+import de.tuberlin.sese.swtpp.gameserver.persistence.Journal;
 
 /**
  * This class holds game-related use case and additional functionality required by these.
@@ -17,9 +28,30 @@ public class GameController implements Serializable{
 	 * 
 	 */
 	private static final long serialVersionUID = 1L;
+	
+	// archived games kept in memory after they were read (least recently used are removed)
+	public static final int ARCHIVE_CACHE = 256;
 
-	//associations
+	//associations (active games, finished games are moved to the archive)
 	protected LinkedList<Game> games = new LinkedList<Game>();
+	// index of games by ID (getGame must not walk through all games ever played)
+	protected ConcurrentHashMap<Integer, Game> gamesByID = new ConcurrentHashMap<Integer, Game>();
+	// games waiting for players per game type, oldest first (started games are removed when found)
+	protected ConcurrentHashMap<String, ConcurrentLinkedQueue<Game>> waitingGames = new ConcurrentHashMap<String, ConcurrentLinkedQueue<Game>>();
+	// every change is written to the journal (null: changes are not saved, e.g. in tests)
+	protected transient Journal journal;
+	// finished games (null: finished games stay in memory, e.g. in tests)
+	protected transient GameArchive archive;
+	protected transient Map<Integer, Game> archivedGames = new LinkedHashMap<Integer, Game>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Game> eldest) {
+			return size() > ARCHIVE_CACHE;
+		}
+	};
+	// told about every change of a game after it is saved, e.g. to push it to clients (null: nobody listens)
+	protected transient volatile Consumer<Game> listener;
 
 	// singleton instance
 	private static GameController gameController;
@@ -33,19 +65,43 @@ public class GameController implements Serializable{
 	 ******************************/
 	
 	
+	// copy: can be saved while new games are added
 	public LinkedList<Game> getGames() {
-		return games;
+		synchronized (games) {
+			return new LinkedList<Game>(games);
+		}
 	}
 
 	public void setGames(LinkedList<Game> games) {
 		this.games = games;
+		
+		ConcurrentHashMap<Integer, Game> index = new ConcurrentHashMap<Integer, Game>();
+		ConcurrentHashMap<String, ConcurrentLinkedQueue<Game>> waiting = new ConcurrentHashMap<String, ConcurrentLinkedQueue<Game>>();
+		for (Game g: games) {
+			index.put(g.getGameID(), g);
+			if (!g.isStarted()) waiting.computeIfAbsent(g.getType(), t -> new ConcurrentLinkedQueue<Game>()).add(g);
+		}
+		this.gamesByID = index;
+		this.waitingGames = waiting;
+	}
+	
+	public void setJournal(Journal journal) {
+		this.journal = journal;
+	}
+	
+	public void setArchive(GameArchive archive) {
+		this.archive = archive;
+	}
+	
+	public void setListener(Consumer<Game> listener) {
+		this.listener = listener;
 	}
 	
 	/**
 	 * getInstance (Singleton)
 	 * @return
 	 */
-	public static GameController getInstance() {
+	public static synchronized GameController getInstance() {
 		if (gameController == null)
 			gameController = new GameController();
 	
@@ -68,6 +124,25 @@ public class GameController implements Serializable{
 	 * @return ID of new game
 	 */
 	public int startGame(User u, String bots, String type) {
+		long record = 0;
+		beginChange();
+		try {
+			Game newGame = createGame(u, bots, type);
+			record = journal(Journal.START, newGame, -1, u.getId(), bots, type);
+			
+			synchronized (games) {
+				this.games.add(newGame);
+			}
+			this.gamesByID.put(newGame.getGameID(), newGame);
+			if (!newGame.isStarted()) waitingGames(newGame.getType()).add(newGame);
+			
+			return newGame.getGameID();
+		} finally {
+			endChange(record);
+		}
+	}
+	
+	private Game createGame(User u, String bots, String type) {
 	
 		System.out.println("start game " + type + " with " + bots);
 		
@@ -80,7 +155,8 @@ public class GameController implements Serializable{
 		
 		newGame.addPlayer(p);
 		
-		if(bots!="") {
+		// bots of journal/request are not the same String object as ""
+		if(bots != null && !bots.isEmpty()) {
 			String[] bTypes = bots.split(";");
 			for (String bot : bTypes) {
 				User botG = GameFactory.createBot(bot, newGame);
@@ -90,9 +166,7 @@ public class GameController implements Serializable{
 
 		}
 		
-		this.games.add(newGame);
-		
-		return newGame.getGameID();
+		return newGame;
 	}
 	
 	/**
@@ -103,22 +177,39 @@ public class GameController implements Serializable{
 	 * @return -1 if there was no game waiting, otherwise: gameID
 	 */
 	public int joinGame(User u, String type) {
-		int ID; 
-		Game gameWaiting = findOldestGameWaitingforPlayers(u, type);
-	
-		if (gameWaiting == null) {
-			return -1;
-		} else {
-			Player p = new Player(u, gameWaiting);
-			u.addParticipation(p);
-			
-			gameWaiting.addPlayer(p);
+		while (true) {
+			Game gameWaiting = findOldestGameWaitingforPlayers(u, type);
 		
-			ID = gameWaiting.getGameID();
+			if (gameWaiting == null) {
+				return -1;
+			}
 			
+			long record = 0;
+			Game changed = null;
+			beginChange();
+			try {
+				// users joining at the same time: only one of them gets the last place of a game
+				synchronized (gameWaiting) {
+					if (gameWaiting.isStarted() || gameWaiting.isPlayer(u)) continue;
+					
+					addPlayer(u, gameWaiting);
+					record = journal(Journal.JOIN, gameWaiting, -1, u.getId());
+					changed = gameWaiting;
+				
+					return gameWaiting.getGameID();
+				}
+			} finally {
+				endChange(record, changed);
+			}
 		}
+	}
+	
+	private void addPlayer(User u, Game g) {
+		Player p = new Player(u, g);
+		u.addParticipation(p);
 		
-		return ID;
+		g.addPlayer(p);
+		if (g.isStarted()) waitingGames(g.getType()).remove(g);
 	}
 	
 	/**
@@ -138,7 +229,21 @@ public class GameController implements Serializable{
 			if (!g.isStarted() || g.isFinished()) {
 				return false;
 			} else {	
-				return g.tryMove(move, g.getPlayer(u));
+				long record = 0;
+				Game changed = null;
+				beginChange();
+				try {
+					synchronized (g) {
+						Player p = g.getPlayer(u);
+						if (!g.tryMove(move, p)) return false;
+						record = journal(Journal.MOVE, g, g.getPlayers().indexOf(p), move);
+						changed = g;
+					}
+					archiveIfFinished(g);
+					return true;
+				} finally {
+					endChange(record, changed);
+				}
 			}
 		}
 		
@@ -157,7 +262,21 @@ public class GameController implements Serializable{
 		Game g = getGame(gameID);
 		
 		if (g!= null){
-			g.giveUp(g.getPlayer(u));
+			long record = 0;
+			Game changed = null;
+			beginChange();
+			try {
+				synchronized (g) {
+					Player p = g.getPlayer(u);
+					if (g.giveUp(p)) {
+						record = journal(Journal.GIVEUP, g, g.getPlayers().indexOf(p));
+						changed = g;
+					}
+				}
+				archiveIfFinished(g);
+			} finally {
+				endChange(record, changed);
+			}
 		}
 	}
 	
@@ -173,7 +292,21 @@ public class GameController implements Serializable{
 		Game g = getGame(gameID);
 		
 		if (g!= null){
-			g.callDraw(g.getPlayer(u));
+			long record = 0;
+			Game changed = null;
+			beginChange();
+			try {
+				synchronized (g) {
+					Player p = g.getPlayer(u);
+					if (g.callDraw(p)) {
+						record = journal(Journal.DRAW, g, g.getPlayers().indexOf(p));
+						changed = g;
+					}
+				}
+				archiveIfFinished(g);
+			} finally {
+				endChange(record, changed);
+			}
 		}
 	}
 
@@ -227,26 +360,188 @@ public class GameController implements Serializable{
 	 ******************************/
 	
 	
+	/**
+	 * @return active game or finished game (read from the archive if it was moved there)
+	 */
 	public Game getGame(int gameID) {
-		
-		for (Game g: games) {
-			if (g.getGameID() == gameID) return g;
+		Game g = gamesByID.get(gameID);
+		if (g == null && archive != null) g = getArchivedGame(gameID);
+		return g;
+	}
+	
+	private Game getArchivedGame(int gameID) {
+		synchronized (archivedGames) {
+			Game g = archivedGames.get(gameID);
+			if (g != null) return g;
+		}
+		try {
+			// players are the registered users (getPlayer), the users are not changed
+			Game g = archive.read(gameID, UserController.getInstance()::findUserByID);
+			if (g != null) {
+				synchronized (archivedGames) {
+					archivedGames.put(gameID, g);
+				}
+			}
+			return g;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
 		}
-		
-		return null;
 	}
 	
 	public Game findOldestGameWaitingforPlayers(User u, String type) {
 		
-		for (Game g: games) {
-			if (!g.isStarted() && !g.isPlayer(u) && g.getType().equals(type)) return g;
+		Iterator<Game> waiting = waitingGames(type).iterator();
+		while (waiting.hasNext()) {
+			Game g = waiting.next();
+			// players of game may be changed by a user joining at the same time
+			synchronized (g) {
+				if (g.isStarted()) waiting.remove();
+				else if (!g.isPlayer(u)) return g;
+			}
 		}
 
 		return null;
 	}	
 	
+	/**
+	 * @return player of game with index (like in journal), null for -1
+	 */
+	public Player getPlayer(Game g, int index) {
+		return index >= 0 && index < g.getPlayers().size() ? g.getPlayers().get(index) : null;
+	}
+	
+	/*******************************
+	 * Archive
+	 ******************************/
+	
+	/**
+	 * Finished game is moved to the archive: it is not kept in memory anymore, the history of its users
+	 * only keeps an ArchivedGame (with what statistics need)
+	 */
+	private void archiveIfFinished(Game g) {
+		GameArchive a = archive;
+		if (a == null || !g.isFinished()) return;
+		
+		int id = g.getGameID();
+		// found by getGame until it is in the archive
+		synchronized (archivedGames) {
+			archivedGames.put(id, g);
+		}
+		// game is archived by one thread only
+		if (!gamesByID.remove(id, g)) return;
+		synchronized (games) {
+			games.remove(g);
+		}
+		
+		boolean appended;
+		try {
+			appended = a.append(g);
+		} catch (IOException e) {
+			e.printStackTrace();
+			// stays in memory
+			synchronized (games) {
+				games.add(g);
+			}
+			gamesByID.put(id, g);
+			return;
+		}
+		
+		ArchivedGame archived = new ArchivedGame(id, g.getType(), g.isDraw(), g.isSurrendered(), g.getMoveCount());
+		for (Player p: g.getPlayers()) {
+			if (p.getUser() instanceof Bot) continue;
+			Player archivedPlayer = null;
+			if (appended) {
+				archivedPlayer = new Player(p.getUser(), archived);
+				if (p.isWinner()) archivedPlayer.setWinner();
+			}
+			// already archived before the crash (game was also in snapshot): history has its ArchivedGame
+			p.getUser().archiveGame(p, archivedPlayer);
+		}
+	}
+	
+	/**
+	 * Moves finished games to the archive (games of the snapshot and the journal, see Persistence.load)
+	 */
+	public void archiveFinished() {
+		for (Game g: getGames()) archiveIfFinished(g);
+	}
+	
+	private ConcurrentLinkedQueue<Game> waitingGames(String type) {
+		return waitingGames.computeIfAbsent(type, t -> new ConcurrentLinkedQueue<Game>());
+	}
+	
+	/*******************************
+	 * Journal
+	 ******************************/
+	
+	private void beginChange() {
+		Journal j = journal;
+		if (j != null) j.beginChange();
+	}
+	
+	// waits until change is saved (after all locks are released)
+	private void endChange(long record) {
+		Journal j = journal;
+		if (j != null) {
+			j.endChange();
+			if (record > 0) j.commit(record);
+		}
+	}
+	
+	// listener is told about changed game (null: nothing changed) when the change is saved
+	private void endChange(long record, Game changed) {
+		endChange(record);
+		Consumer<Game> l = listener;
+		if (l != null && changed != null) l.accept(changed);
+	}
+	
+	private long journal(byte type, Game g, int player, String... args) {
+		Journal j = journal;
+		return j == null ? 0 : j.append(type, g.getGameID(), player, args);
+	}
+	
+	/**
+	 * Started game from journal: game gets its old ID
+	 */
+	public void restoreGame(User u, String bots, String type, int gameID) {
+		if (getGame(gameID) != null) return;
+		
+		Game.setLastID(gameID);
+		startGame(u, bots, type);
+	}
+	
+	/**
+	 * Joined game from journal
+	 */
+	public void restoreJoin(User u, int gameID) {
+		Game g = getGame(gameID);
+		if (g == null) return;
+		
+		synchronized (g) {
+			if (!g.isStarted() && !g.isPlayer(u)) addPlayer(u, g);
+		}
+	}
+	
+	/**
+	 * Bots do not move while state is loaded (see Bot.pause): bots whose turn it is are told again
+	 */
+	public void resumeBots() {
+		for (Game g: getGames()) {
+			Player next = g.getNextPlayer();
+			if (g.isStarted() && !g.isFinished() && next != null && next.getUser() instanceof Bot) {
+				((Bot) next.getUser()).notifyTurn();
+			}
+		}
+	}
+	
 	public void clear() {
 		games = new LinkedList<Game>();
+		gamesByID = new ConcurrentHashMap<Integer, Game>();
+		waitingGames = new ConcurrentHashMap<String, ConcurrentLinkedQueue<Game>>();
+		synchronized (archivedGames) {
+			archivedGames.clear();
+		}
 	}
 		
 }
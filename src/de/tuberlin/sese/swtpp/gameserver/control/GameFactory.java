@@ -1,7 +1,10 @@
 package de.tuberlin.sese.swtpp.gameserver.control;
 
+import de.tuberlin.sese.swtpp.gameserver.model.AlphaBetaBot;
+import de.tuberlin.sese.swtpp.gameserver.model.Bot;
 import de.tuberlin.sese.swtpp.gameserver.model.Game;
 import de.tuberlin.sese.swtpp.gameserver.model.HaskellBot;
+import de.tuberlin.sese.swtpp.gameserver.model.MonteCarloBot;
 import de.tuberlin.sese.swtpp.gameserver.model.User;
 import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.DeathStacksGame;
 
@@ -10,6 +13,23 @@ public class GameFactory {
 	//TODO: changed path to bot executable if desired
 	public static final String DEATHSTACKS_BOT_PATH = "C:\\tmp\\deathstacks\\";
 	public static final String DEATHSTACKS_BOT_COMMAND = "Main.exe";
+	// "haskell-persistent": arguments that start the bot in persistent mode (one request per line),
+	// processes shared by all games
+	public static final String DEATHSTACKS_BOT_SERVER_ARGS = "--server";
+	public static final int DEATHSTACKS_BOT_POOL_SIZE = 2;
+	// time for one answer of the bot program (ms)
+	public static final long DEATHSTACKS_BOT_TIMEOUT = 10000;
+	// time budget per move of the in-process bot (ms)
+	public static final long DEATHSTACKS_BOT_MOVE_TIME = 1000;
+	// memory of the transposition table of the in-process bot (MB)
+	public static final int DEATHSTACKS_BOT_TABLE_MB = 16;
+	// search threads of the in-process bot: "alphabeta" uses one, "alphabeta-smp" one per core (at most 8)
+	public static final int DEATHSTACKS_BOT_THREADS = 1;
+	public static final int DEATHSTACKS_BOT_SMP_THREADS = Math.min(8, Runtime.getRuntime().availableProcessors());
+	// tree size limit and playouts per selected leaf of the Monte Carlo bot
+	// (28 bytes per node: 7 MB per tree, one tree per search thread on every bot executor thread)
+	public static final int DEATHSTACKS_MCTS_NODES = 1 << 18;
+	public static final int DEATHSTACKS_MCTS_PLAYOUTS_PER_LEAF = 1;
 	
 	public static Game createGame(String gameType) {
 		try {
@@ -22,12 +42,59 @@ public class GameFactory {
 		
 		return null;
 	}
+	
+	/**
+	 * Game with an ID it got before (game read from archive), the next ID of new games stays the same
+	 */
+	public static Game createGame(String gameType, int gameID) {
+		// IDs are created with the lock of Game.class (see Game.createID)
+		synchronized (Game.class) {
+			int lastID = Game.getLastID();
+			Game.setLastID(gameID);
+			try {
+				return createGame(gameType);
+			} finally {
+				Game.setLastID(lastID);
+			}
+		}
+	}
 
 	public static User createBot(String type, Game game) {
+		User bot;
+		switch(type) {
+			case "alphabeta-smp": bot = createBot("alphabeta", game, DEATHSTACKS_BOT_SMP_THREADS); break;
+			case "mcts-parallel": bot = createBot("mcts", game, DEATHSTACKS_BOT_SMP_THREADS); break;
+			default: bot = createBot(type, game, DEATHSTACKS_BOT_THREADS);
+		}
+		if (bot instanceof Bot) ((Bot) bot).setType(type);
+		return bot;
+	}
+	
+	/**
+	 * @param threads count of search threads (only used by in-process bots)
+	 */
+	public static User createBot(String type, Game game, int threads) {
 		switch(type) {
 			case "haskell": 
 				switch(game.getClass().getName().substring(game.getClass().getName().lastIndexOf(".")+1)) {
-					case "DeathStacksGame": return new HaskellBot(game, DEATHSTACKS_BOT_PATH, DEATHSTACKS_BOT_COMMAND);
+					case "DeathStacksGame": return new HaskellBot(game, DEATHSTACKS_BOT_PATH, DEATHSTACKS_BOT_COMMAND,
+							null, 0, DEATHSTACKS_BOT_TIMEOUT);
+					default: return null;
+				}
+			case "haskell-persistent": 
+				switch(game.getClass().getName().substring(game.getClass().getName().lastIndexOf(".")+1)) {
+					case "DeathStacksGame": return new HaskellBot(game, DEATHSTACKS_BOT_PATH, DEATHSTACKS_BOT_COMMAND,
+							DEATHSTACKS_BOT_SERVER_ARGS, DEATHSTACKS_BOT_POOL_SIZE, DEATHSTACKS_BOT_TIMEOUT);
+					default: return null;
+				}
+			case "alphabeta":
+				switch(game.getClass().getName().substring(game.getClass().getName().lastIndexOf(".")+1)) {
+					case "DeathStacksGame": return new AlphaBetaBot(game, DEATHSTACKS_BOT_MOVE_TIME, DEATHSTACKS_BOT_TABLE_MB, threads);
+					default: return null;
+				}
+			case "mcts":
+				switch(game.getClass().getName().substring(game.getClass().getName().lastIndexOf(".")+1)) {
+					case "DeathStacksGame": return new MonteCarloBot(game, DEATHSTACKS_BOT_MOVE_TIME, threads, DEATHSTACKS_MCTS_NODES, DEATHSTACKS_MCTS_PLAYOUTS_PER_LEAF);
 					default: return null;
 				}
 			default: return null;
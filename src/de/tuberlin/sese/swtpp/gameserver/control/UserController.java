@@ -4,9 +4,10 @@ import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
 import java.util.Base64;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
@@ -15,6 +16,7 @@ import javax.crypto.spec.PBEKeySpec;
 import de.tuberlin.sese.swtpp.gameserver.model.Game;
 import de.tuberlin.sese.swtpp.gameserver.model.Statistics;
 import de.tuberlin.sese.swtpp.gameserver.model.User;
+import de.tuberlin.sese.swtpp.gameserver.persistence.Journal;
 
 /**
  * This class implements all general user-related use cases.
@@ -25,12 +27,14 @@ public class UserController {
 	private static UserController instance = null; 
 	
 	// associations
-	private HashMap<String, User> users;
+	private ConcurrentHashMap<String, User> users;
+	// new users are written to the journal (null: not saved, e.g. in tests)
+	private Journal journal;
 	
 	/**
 	 * Singleton
 	 */
-	public static UserController getInstance() {
+	public static synchronized UserController getInstance() {
 		if (instance == null)
 			instance = new UserController();
 		
@@ -41,16 +45,20 @@ public class UserController {
 	 * private constructor. creates empty map of users
 	 */
 	private UserController() {
-		this.users = new HashMap<String,User>();
+		this.users = new ConcurrentHashMap<String,User>();
 	}
 
 
-	public HashMap<String, User> getUsers() {
+	public Map<String, User> getUsers() {
 		return users;
 	}
 
-	public void setUsers(HashMap<String, User> users) {
-		this.users = users;
+	public void setUsers(Map<String, User> users) {
+		this.users = new ConcurrentHashMap<String,User>(users);
+	}
+	
+	public void setJournal(Journal journal) {
+		this.journal = journal;
 	}
 	
 	/**
@@ -111,11 +119,37 @@ public class UserController {
 		User u = new User(name, id);
 		createSaltedHash(pwd, u);
 		
-		users.put(id, u);
+		Journal j = journal;
+		if (j == null) {
+			users.put(id, u);
+			return u;
+		}
+		
+		long record;
+		j.beginChange();
+		try {
+			users.put(id, u);
+			record = j.append(Journal.REGISTER, 0, -1, id, name, u.getPwdhash(), u.getSalt() == null ? "" : Base64.getEncoder().encodeToString(u.getSalt()));
+		} finally {
+			j.endChange();
+		}
+		j.commit(record);
 		
 		return u;
 	}
 	
+	/**
+	 * Registered user from journal (password hash is not computed again)
+	 */
+	public synchronized void restoreUser(String id, String name, String pwdhash, byte[] salt) {
+		if (checkUserExists(id)) return;
+		
+		User u = new User(name, id);
+		u.setPwdhash(pwdhash);
+		u.setSalt(salt);
+		users.put(id, u);
+	}
+	
 	/**
 	 * Returns statistics object for given user
 	 * 
@@ -0,0 +1,102 @@
+package de.tuberlin.sese.swtpp.gameserver.model;
+
+import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.MoveGenerator;
+import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.ParallelSearch;
+import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.StacksBoard;
+import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.TranspositionTable;
+
+/**
+ * Bot implementation that searches the next DeathStacks move in-process 
+ * (iterative deepening alpha-beta, see AlphaBetaSearch). No external program is started.
+ * With more than one thread the search runs in parallel (see ParallelSearch).
+ *
+ */
+public class AlphaBetaBot extends Bot implements Runnable{
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -2385410383516720471L;
+
+
+	protected Game game;      // the game this bot plays
+	protected long moveTime;  // time budget per move in ms
+	protected int tableSize;  // memory of transposition table in MB, 0 = no table
+	protected int threads;    // search threads per move
+	
+	// one table per bot executor thread (the pool is bounded), used by all bots whose moves run on it:
+	// memory does not grow with the number of bot games. Entries of other games are valid positions too.
+	private static final ThreadLocal<TranspositionTable> TABLES = new ThreadLocal<TranspositionTable>();
+	private static final ThreadLocal<Integer> TABLE_SIZES = new ThreadLocal<Integer>();
+	
+	public AlphaBetaBot(Game game, long moveTime, int tableSize, int threads) {
+		super("AlphaBetaBot");
+		this.game = game;
+		this.moveTime = moveTime;
+		this.tableSize = tableSize;
+		this.threads = threads;
+	}
+	
+	public long getMoveTime() {
+		return moveTime;
+	}
+
+	public void setMoveTime(long moveTime) {
+		this.moveTime = moveTime;
+	}
+	
+	public int getTableSize() {
+		return tableSize;
+	}
+	
+	public int getThreads() {
+		return threads;
+	}
+
+	@Override
+	public String getName() {
+		return "AlphaBetaBot";
+	}
+	
+	@Override
+	public void run() {
+		// called on the bot executor when the game hands the turn to this bot (see Bot.notifyTurn)
+		// do move when it's (still) my turn
+		if (game.isItMyTurn(this)) {
+			executeMove();
+		}
+	}
+
+	// table of the calling thread, null if bot uses none
+	protected TranspositionTable table() {
+		if (tableSize <= 0) return null;
+		TranspositionTable table = TABLES.get();
+		if (table == null || TABLE_SIZES.get() != tableSize) {
+			table = new TranspositionTable(tableSize);
+			TABLES.set(table);
+			TABLE_SIZES.set(tableSize);
+		}
+		return table;
+	}
+
+	protected void executeMove() {
+		
+		// search on own copy of the board
+		StacksBoard board = new StacksBoard();
+		board.loadFEN(game.getBoard());
+		char colour = game.nextPlayerString().charAt(0);
+		
+		int move = new ParallelSearch(board, table(), threads).search(colour, moveTime);
+		
+		// give up when bot didn't find a move
+		if (move == -1) giveUp(game);
+		else {
+			String result = MoveGenerator.toMoveString(move);
+			if (!tryMove(game, result)) {
+				// give up when move was illegal
+				giveUp(game);
+			} 
+		}
+	}
+
+}
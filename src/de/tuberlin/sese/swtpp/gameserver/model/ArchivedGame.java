@@ -0,0 +1,104 @@
+package de.tuberlin.sese.swtpp.gameserver.model;
+
+import de.tuberlin.sese.swtpp.gameserver.control.GameController;
+
+/**
+ * Finished game that was moved to the archive (see GameArchive). Only what history and statistics
+ * of the users need is kept in memory, everything else is read from the archive when it is needed
+ * (see GameController.getGame). An archived game cannot be changed.
+ *
+ */
+public class ArchivedGame extends Game {
+
+	private static final long serialVersionUID = -2950532651178011823L;
+
+	private final String type;
+	private final int moveCount;
+
+	public ArchivedGame(int id, String type, boolean draw, boolean surrendered, int moveCount) {
+		super(id);
+		this.type = type;
+		this.moveCount = moveCount;
+		this.started = true;
+		this.finished = true;
+		this.draw = draw;
+		this.surrendered = surrendered;
+	}
+
+	/**
+	 * @return whole game read from the archive
+	 */
+	public Game getGame() {
+		Game g = GameController.getInstance().getGame(ID);
+		return g != null ? g : this;
+	}
+
+	@Override
+	public int getMoveCount() {
+		return moveCount;
+	}
+
+	@Override
+	public String getType() {
+		return type;
+	}
+
+	@Override
+	public String getBoard() {
+		Game g = getGame();
+		return g != this ? g.getBoard() : "";
+	}
+
+	@Override
+	public String getStatus() {
+		Game g = getGame();
+		return g != this ? g.getStatus() : "Finished";
+	}
+
+	@Override
+	public String gameInfo() {
+		Game g = getGame();
+		return g != this ? g.gameInfo() : "";
+	}
+
+	@Override
+	public String nextPlayerString() {
+		Game g = getGame();
+		return g != this ? g.nextPlayerString() : "";
+	}
+
+	@Override
+	public boolean addPlayer(Player player) {
+		return false;
+	}
+
+	@Override
+	public int getMinPlayers() {
+		return 0;
+	}
+
+	@Override
+	public int getMaxPlayers() {
+		return 0;
+	}
+
+	@Override
+	public boolean tryMove(String move, Player player) {
+		return false;
+	}
+
+	@Override
+	public boolean callDraw(Player player) {
+		return false;
+	}
+
+	@Override
+	public boolean giveUp(Player player) {
+		return false;
+	}
+
+	@Override
+	public void setBoard(String boardFEN) {
+	}
+
+}
@@ -1,18 +1,114 @@
 package de.tuberlin.sese.swtpp.gameserver.model;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import de.tuberlin.sese.swtpp.gameserver.control.GameController;
+
 /**
  * Bot class as a special User. Doesn't do much, but can be 
  * used to distinguish bots from other users.
  * Work has to be done by concrete bot implementations.
+ * 
+ * Bots do not poll their game: the game notifies a bot when it is its turn (see Game.setNextPlayer)
+ * and the move is computed on an executor shared by all bots (see run of concrete bots).
+ * Bots that wait for an external program (see isExternal) use their own executor, so they do not
+ * take the threads of the bots that compute their move. It has one thread per program that may run
+ * at the same time, turns of more bot games wait in its queue.
  *
  */
-public abstract class Bot extends User{
+public abstract class Bot extends User implements Runnable{
 	/**
 	 * 
 	 */
 	private static final long serialVersionUID = 6451276549161911816L;
 	
+	// count of threads stays the same no matter how many bot games are running
+	public static final int BOT_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+	
+	private static final ExecutorService executor = Executors.newFixedThreadPool(BOT_THREADS, runnable -> {
+		Thread thread = new Thread(runnable, "bot-executor");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	// threads of external bots mostly wait for their program: BOT_THREADS for bots that launch their
+	// program for every move, one more per process of the process pools (see addExternalThreads)
+	private static final ThreadPoolExecutor externalExecutor = new ThreadPoolExecutor(BOT_THREADS, BOT_THREADS,
+			60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), runnable -> {
+		Thread thread = new Thread(runnable, "bot-process");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	static {
+		// no threads while there are no external bots
+		externalExecutor.allowCoreThreadTimeOut(true);
+	}
+	
+	// no moves while games are loaded (see Persistence.load)
+	private static volatile boolean paused = false;
+	
+	// bot type of GameFactory.createBot (to create bot again when game is loaded)
+	protected String type;
+	
 	public Bot(String name) {
 		super(name,name);
 	}
+	
+	public String getType() {
+		return type;
+	}
+	
+	public void setType(String type) {
+		this.type = type;
+	}
+	
+	/**
+	 * Called by the game when it hands the turn to this bot. The move is computed
+	 * on the shared bot executor.
+	 */
+	public void notifyTurn() {
+		if (!paused) (isExternal() ? externalExecutor : executor).execute(this);
+	}
+	
+	/**
+	 * @return true if the move is computed by another process (thread is blocked while it waits)
+	 */
+	protected boolean isExternal() {
+		return false;
+	}
+	
+	/**
+	 * More bot programs may run at the same time (new process pool, see BotProcessPool.getPool)
+	 */
+	static synchronized void addExternalThreads(int count) {
+		int threads = externalExecutor.getMaximumPoolSize() + count;
+		// maximum first: core size must not be larger
+		externalExecutor.setMaximumPoolSize(threads);
+		externalExecutor.setCorePoolSize(threads);
+	}
+	
+	public static void pause() {
+		paused = true;
+	}
+	
+	public static void resume() {
+		paused = false;
+	}
+	
+	/**
+	 * Bots use the same use cases as human players (moves are saved like theirs)
+	 * @return true if move was performed
+	 */
+	protected boolean tryMove(Game game, String move) {
+		return GameController.getInstance().tryMove(this, game.getGameID(), move);
+	}
+	
+	protected void giveUp(Game game) {
+		GameController.getInstance().giveUp(this, game.getGameID());
+	}
 }
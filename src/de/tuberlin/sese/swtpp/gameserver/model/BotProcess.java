@@ -0,0 +1,114 @@
+package de.tuberlin.sese.swtpp.gameserver.model;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-lived external bot process. The process is started once and answers
+ * many requests: every request is one line on stdin (board and next player, like the
+ * command line arguments of HaskellBot), the answer is one line on stdout (the move).
+ * 
+ * The process is started again when it crashed or did not answer in time.
+ * Not thread safe, used by one bot at a time (see BotProcessPool).
+ *
+ */
+public class BotProcess {
+	
+	// put into answers when bot process ended (compared by reference)
+	private static final String END = new String("end of bot output");
+	
+	private final String path;    // working directory of bot
+	private final String command; // bot executable with arguments for persistent mode
+	
+	private Process process;
+	private Writer input;
+	// lines written by the bot, filled by reader thread
+	private LinkedBlockingQueue<String> answers;
+	
+	public BotProcess(String path, String command) {
+		this.path = path;
+		this.command = command;
+	}
+	
+	/**
+	 * Sends one request to the bot, starts the bot first if it is not running
+	 * @param timeout time to wait for the answer in ms
+	 * @return answer line or null if bot did not answer in time (bot is stopped then)
+	 */
+	public String request(String line, long timeout) throws IOException, InterruptedException {
+		try {
+			send(line);
+		} catch (IOException e) {
+			// bot crashed since last request: try again once with new process
+			stop();
+			send(line);
+		}
+		
+		String answer = answers.poll(timeout, TimeUnit.MILLISECONDS);
+		if (answer == END) {
+			// crashed while computing: started again with next request
+			stop();
+			return null;
+		}
+		if (answer == null) {
+			// answer of a late bot would belong to the wrong request
+			stop();
+		}
+		return answer;
+	}
+	
+	private void send(String line) throws IOException {
+		if (process == null || !process.isAlive()) {
+			start();
+		}
+		answers.clear();
+		input.write(line + "\n");
+		input.flush();
+	}
+	
+	private void start() throws IOException {
+		stop();
+		
+		ProcessBuilder builder = new ProcessBuilder((path + command).split(" "));
+		builder.directory(new File(path));
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		Process child = builder.start();
+		
+		LinkedBlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+		BufferedReader output = new BufferedReader(new InputStreamReader(child.getInputStream(), StandardCharsets.UTF_8));
+		Thread reader = new Thread(() -> {
+			try {
+				String line;
+				while ((line = output.readLine()) != null) lines.add(line.trim());
+			} catch (IOException e) {
+				// process was stopped
+			}
+			lines.add(END);
+		}, "bot-process-reader");
+		reader.setDaemon(true);
+		reader.start();
+		
+		this.process = child;
+		this.input = new OutputStreamWriter(child.getOutputStream(), StandardCharsets.UTF_8);
+		this.answers = lines;
+	}
+	
+	public void stop() {
+		if (process != null) {
+			process.destroyForcibly();
+			process = null;
+		}
+	}
+	
+	public boolean isRunning() {
+		return process != null && process.isAlive();
+	}
+
+}
@@ -0,0 +1,72 @@
+package de.tuberlin.sese.swtpp.gameserver.model;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small pool of long-lived bot processes (see BotProcess), shared by all games
+ * that use the same bot. A bot that wants to move borrows a process and returns it afterwards,
+ * so many bot games at the same time do not start a process each.
+ * Processes are started when they are used the first time.
+ * A bot that finds all processes busy does not wait for one longer than its answer time.
+ *
+ */
+public class BotProcessPool {
+	
+	// one pool per bot (path + command)
+	private static final ConcurrentHashMap<String, BotProcessPool> pools = new ConcurrentHashMap<String, BotProcessPool>();
+	
+	static {
+		// stop bot processes together with the server
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			for (BotProcessPool pool : pools.values()) pool.stopAll();
+		}));
+	}
+	
+	private final ArrayBlockingQueue<BotProcess> idle;
+	private final BotProcess[] processes;
+	
+	public BotProcessPool(String path, String command, int size) {
+		this.processes = new BotProcess[Math.max(1, size)];
+		this.idle = new ArrayBlockingQueue<BotProcess>(processes.length);
+		for (int i = 0; i < processes.length; i++) {
+			processes[i] = new BotProcess(path, command);
+			idle.add(processes[i]);
+		}
+	}
+	
+	/**
+	 * @return shared pool of bot, created with size if it does not exist yet
+	 */
+	public static BotProcessPool getPool(String path, String command, int size) {
+		return pools.computeIfAbsent(path + command, key -> {
+			BotProcessPool pool = new BotProcessPool(path, command, size);
+			// every process can be used at the same time
+			Bot.addExternalThreads(pool.getSize());
+			return pool;
+		});
+	}
+	
+	/**
+	 * Free bot process for one request, has to be given back with release
+	 * @param wait time to wait for a free process in ms
+	 * @return null if all processes stayed busy
+	 */
+	public BotProcess acquire(long wait) throws InterruptedException {
+		return idle.poll(wait, TimeUnit.MILLISECONDS);
+	}
+	
+	public void release(BotProcess process) {
+		idle.add(process);
+	}
+	
+	public void stopAll() {
+		for (BotProcess process : processes) process.stop();
+	}
+	
+	public int getSize() {
+		return processes.length;
+	}
+
+}
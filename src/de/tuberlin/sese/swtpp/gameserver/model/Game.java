@@ -1,9 +1,20 @@
 package de.tuberlin.sese.swtpp.gameserver.model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+/**
+ * Concurrency: request threads and bot threads use the same game. Every state transition
+ * (addPlayer, tryMove, callDraw, giveUp, setBoard) and every read of the board holds the monitor
+ * of the game, so two moves of one game never interleave while different games run in parallel.
+ * Status flags and next player are volatile and can be read without the lock.
+ * After every state change an immutable GameSnapshot is published, readers use it without the lock.
+ */
 public abstract class Game implements Serializable{
 	
 	private static final long serialVersionUID = 2467695635164175201L;
@@ -14,15 +25,19 @@ public abstract class Game implements Serializable{
 	
 	// attributes (game status)
 	protected int ID;
-	protected boolean started = false;      // game is started
-	protected boolean finished = false;     // game is over
-	protected boolean draw = false;         // draw game; must be finished
-	protected boolean surrendered = false;  // someone gave up; must be finished
+	protected volatile boolean started = false;      // game is started
+	protected volatile boolean finished = false;     // game is over
+	protected volatile boolean draw = false;         // draw game; must be finished
+	protected volatile boolean surrendered = false;  // someone gave up; must be finished
 	
 	// associations 
-	protected List<Player> players = new LinkedList<Player>();
+	protected List<Player> players = new CopyOnWriteArrayList<Player>(); // read without lock
 	protected List<Move> history = new LinkedList<Move>();
-	protected Player nextPlayer = null;
+	protected volatile Player nextPlayer = null;
+	
+	// state changes so far and view of the game after the last one (see publishSnapshot)
+	protected long version = 0;
+	protected transient volatile GameSnapshot snapshot;
 
 	// to create unique gameIDs
 	protected static int lastID = 0;
@@ -40,6 +55,11 @@ public abstract class Game implements Serializable{
 			ID = createID();
 	}
 	
+	// game that got its ID before (see ArchivedGame)
+	protected Game(int id) {
+			ID = id;
+	}
+	
 	/**********************************
 	 * Getter/Setter/Helper
 	 **********************************/
@@ -48,7 +68,7 @@ public abstract class Game implements Serializable{
 		return history;
 	}
 
-	public static void setLastID(int id) {
+	public static synchronized void setLastID(int id) {
 		lastID = id;
 	}
 	
@@ -79,6 +99,42 @@ public abstract class Game implements Serializable{
 	public Player getNextPlayer() {
 		return nextPlayer;
 	}
+	
+	public long getVersion() {
+		return version;
+	}
+	
+	/**
+	 * @return view of the game after the last state change (no lock needed)
+	 */
+	public GameSnapshot getSnapshot() {
+		GameSnapshot current = snapshot;
+		if (current == null) {
+			// not published yet since game was loaded
+			synchronized (this) {
+				if (snapshot == null) snapshot = createSnapshot();
+				current = snapshot;
+			}
+		}
+		return current;
+	}
+	
+	/**
+	 * Counts a state change and replaces the snapshot of the game. Has to be called
+	 * at the end of every state change (while holding the lock of the game).
+	 */
+	protected synchronized void publishSnapshot() {
+		version++;
+		snapshot = createSnapshot();
+	}
+	
+	private GameSnapshot createSnapshot() {
+		List<String> names = new ArrayList<String>();
+		for (Player p: players) names.add(p.getName());
+		
+		return new GameSnapshot(ID, getType(), names, getBoard(), getStatus(), gameInfo(),
+				started, finished, nextPlayer, version);
+	}
 
 	public List<Player> getPlayers() {
 		return players;
@@ -109,11 +165,13 @@ public abstract class Game implements Serializable{
 
 	public void setError(boolean error) {
 		this.error = error;
+		publishSnapshot();
 	}
 
 	public boolean isItMyTurn(User u) {
-		if (started && !finished) {
-			return u == nextPlayer.getUser();
+		Player next = nextPlayer;
+		if (started && !finished && next != null) {
+			return u == next.getUser();
 		}
 		return false;
 	}
@@ -228,6 +286,12 @@ public abstract class Game implements Serializable{
 	
 	public void setNextPlayer(Player player) {
 		nextPlayer = player;
+		publishSnapshot();
+		
+		// bots do not poll the game: tell bot that it's its turn
+		if (started && !finished && player != null && player.getUser() instanceof Bot) {
+			((Bot) player.getUser()).notifyTurn();
+		}
 	}
 	
 	public void setHistory(List<Move> history) {
@@ -239,4 +303,10 @@ public abstract class Game implements Serializable{
 	 * @param state
 	 */
 	public abstract void setBoard(String boardFEN);
+	
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		// games saved before players were copy-on-write
+		if (!(players instanceof CopyOnWriteArrayList)) players = new CopyOnWriteArrayList<Player>(players);
+	}
 }
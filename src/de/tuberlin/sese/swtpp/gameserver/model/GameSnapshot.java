@@ -0,0 +1,106 @@
+package de.tuberlin.sese.swtpp.gameserver.model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable view of a game after one state change (see Game.publishSnapshot).
+ * Readers (e.g. polling clients) use the current snapshot without taking the lock of the game
+ * and without computing board or status again.
+ *
+ */
+public final class GameSnapshot {
+	
+	// attributes
+	private final int gameID;
+	private final String type;
+	private final List<String> players;
+	private final String board;
+	private final String status;
+	private final String info;
+	private final boolean started;
+	private final boolean finished;
+	private final long version;   // counts the state changes of the game
+	
+	// associations
+	private final Player nextPlayer;
+	
+	// representation of this state built by a reader (e.g. JSON of the web interface), built once per state
+	private volatile Object view;
+	
+	/************************************
+	 * constructors
+	 ************************************/
+	
+	public GameSnapshot(int gameID, String type, List<String> players, String board, String status, String info,
+			boolean started, boolean finished, Player nextPlayer, long version) {
+		this.gameID = gameID;
+		this.type = type;
+		this.players = Collections.unmodifiableList(players);
+		this.board = board;
+		this.status = status;
+		this.info = info;
+		this.started = started;
+		this.finished = finished;
+		this.nextPlayer = nextPlayer;
+		this.version = version;
+	}
+	
+	/************************************
+	 * getters
+	 ************************************/
+	
+	public int getGameID() {
+		return gameID;
+	}
+	
+	public String getType() {
+		return type;
+	}
+	
+	public List<String> getPlayers() {
+		return players;
+	}
+	
+	public String getBoard() {
+		return board;
+	}
+	
+	public String getStatus() {
+		return status;
+	}
+	
+	public String getInfo() {
+		return info;
+	}
+	
+	public boolean isStarted() {
+		return started;
+	}
+	
+	public boolean isFinished() {
+		return finished;
+	}
+	
+	public Player getNextPlayer() {
+		return nextPlayer;
+	}
+	
+	public long getVersion() {
+		return version;
+	}
+	
+	// like Game.isItMyTurn(Player) for this state
+	public boolean isItMyTurn(Player p) {
+		return started && p == nextPlayer;
+	}
+	
+	public Object getView() {
+		return view;
+	}
+	
+	public void setView(Object view) {
+		this.view = view;
+	}
+
+}
@@ -4,11 +4,15 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.util.concurrent.TimeUnit;
 
 import de.tuberlin.sese.swtpp.gameserver.model.Bot;
 
 /**
  * Bot implementation that launches Haskell program to retrieve single next move.
+ * In persistent mode (poolSize > 0) the program is not launched for every move, the
+ * request is sent to a long-lived bot process of a shared pool instead (see BotProcessPool).
  *
  */
 public class HaskellBot extends Bot implements Runnable{
@@ -18,19 +22,28 @@ public class HaskellBot extends Bot implements Runnable{
 	 */
 	private static final long serialVersionUID = 1371646871809169057L;
 
+	// time for answer of bot if none is given in ms
+	public static final long DEFAULT_TIMEOUT = 10000;
 
 	protected String path;    // path of bot executable
 	protected String bot;     // bot executable
 	protected Game game; // the game this bot plays
+	protected String serverArgs; // arguments that start bot in persistent mode
+	protected int poolSize;   // 0: launch bot for every move, otherwise size of shared process pool
+	protected long timeout;   // time for answer of bot in ms
 	
 	public HaskellBot(Game game, String path, String bot) {
+		this(game, path, bot, null, 0, DEFAULT_TIMEOUT);
+	}
+	
+	public HaskellBot(Game game, String path, String bot, String serverArgs, int poolSize, long timeout) {
 		super("HaskellBot");
 		this.game = game;
 		this.path = path;
 		this.bot = bot;
-		
-		// start a bot poll thread
-		new Thread(this).start();
+		this.serverArgs = serverArgs;
+		this.poolSize = poolSize;
+		this.timeout = timeout;
 	}
 	
 	public String getPath() {
@@ -46,30 +59,33 @@ public class HaskellBot extends Bot implements Runnable{
 		return "HaskellBot";
 	}
 	
+	@Override
+	protected boolean isExternal() {
+		return true;
+	}
+	
 	@Override
 	public void run() {
-		// run until game is finished
-		while (!game.isFinished()) {
-			try {
-				// check every second for changes
-				Thread.sleep(1000);
-				
-				// do move when it's my turn
-				if (game.isItMyTurn(this)) {
-					executeMove();						
-				}
-				
-			} catch (InterruptedException e) {
-				return;
-			} catch (IOException e) {
-				e.printStackTrace();
+		// called on the bot executor when the game hands the turn to this bot (see Bot.notifyTurn)
+		try {
+			// do move when it's (still) my turn
+			if (game.isItMyTurn(this)) {
+				executeMove();
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
-		
 	}
 
 	protected void executeMove() throws IOException, InterruptedException {
 		
+		if (poolSize > 0) {
+			executePersistentMove();
+			return;
+		}
+		
 		// Execute command
 		String command = path + bot + " " + game.getBoard() + " " + game.nextPlayerString();
 		System.out.println("bot command:" + command);
@@ -80,7 +96,12 @@ public class HaskellBot extends Bot implements Runnable{
 		BufferedReader bri = new BufferedReader
 		        (new InputStreamReader(child.getInputStream()));
 		
-		child.waitFor();
+		// give up when bot does not finish in time
+		if (!child.waitFor(timeout, TimeUnit.MILLISECONDS)) {
+			child.destroyForcibly();
+			giveUp(game);
+			return;
+		}
 		
 		// get result into single string
 		String result = "";
@@ -88,13 +109,49 @@ public class HaskellBot extends Bot implements Runnable{
 		
 		System.out.println("bot answer: " + result + ".");
 		// give up when bot didn't find a move (but should have)
-		if (result == "") game.giveUp(game.getPlayer(this));
+		if (result == "") giveUp(game);
 		else {
-			if (!game.tryMove(result, game.getPlayer(this))) {
+			if (!tryMove(game, result)) {
 				// give up when move was illegal
-				game.giveUp(game.getPlayer(this));
+				giveUp(game);
 			} 
 		}
 	}
+	
+	protected void executePersistentMove() throws IOException, InterruptedException {
+		
+		// one request line: same arguments as command line of bot
+		String request = game.getBoard() + " " + game.nextPlayerString();
+		
+		BotProcessPool pool = BotProcessPool.getPool(path, bot + " " + serverArgs, poolSize);
+		BotProcess process = pool.acquire(timeout);
+		if (process == null) {
+			// all processes busy is no reason to give up: turn is queued again instead of keeping the thread
+			notifyTurn();
+			return;
+		}
+		String result;
+		try {
+			// timeout counted when the process got the request
+			result = process.request(request, timeout);
+		} finally {
+			pool.release(process);
+		}
+		
+		// give up when bot didn't find a move in time (or crashed)
+		if (result == null || result.isEmpty()) giveUp(game);
+		else {
+			if (!tryMove(game, result)) {
+				// give up when move was illegal
+				giveUp(game);
+			} 
+		}
+	}
+	
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		// bots saved before the answer time existed
+		if (timeout <= 0) timeout = DEFAULT_TIMEOUT;
+	}
 
 }
@@ -0,0 +1,123 @@
+package de.tuberlin.sese.swtpp.gameserver.model;
+
+import java.lang.ref.WeakReference;
+
+import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.MonteCarloSearch;
+import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.MoveGenerator;
+import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.StacksBoard;
+
+/**
+ * Bot implementation that searches the next DeathStacks move in-process with
+ * Monte Carlo Tree Search (see MonteCarloSearch). With more than one thread every thread searches
+ * its own tree (root parallel).
+ * 
+ * Memory: a tree takes up to maxNodes * 28 bytes (7 MB with GameFactory.DEATHSTACKS_MCTS_NODES), a bot
+ * uses one tree per search thread. Trees belong to the bot executor threads, not to the games, so the
+ * memory does not grow with the number of bot games. They are kept for the next move if it runs on the
+ * same thread and no other bot used them in between, otherwise the search starts with a new tree.
+ *
+ */
+public class MonteCarloBot extends Bot implements Runnable{
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 4316928734110583229L;
+
+
+	protected Game game;            // the game this bot plays
+	protected long moveTime;        // time budget per move in ms
+	protected int threads;          // searches (trees) per move
+	protected int maxNodes;         // size limit of each tree
+	protected int playoutsPerLeaf;  // batch of playouts for every selected leaf
+	
+	// trees of one bot executor thread (the pool is bounded), used by the bot that moved last on it
+	private static final ThreadLocal<Trees> TREES = new ThreadLocal<Trees>();
+	
+	private static class Trees {
+		final MonteCarloSearch[] searches;
+		final int maxNodes;
+		final int playoutsPerLeaf;
+		// game over: trees do not keep the bot
+		WeakReference<MonteCarloBot> owner;
+		
+		Trees(MonteCarloSearch[] searches, int maxNodes, int playoutsPerLeaf) {
+			this.searches = searches;
+			this.maxNodes = maxNodes;
+			this.playoutsPerLeaf = playoutsPerLeaf;
+		}
+	}
+	
+	public MonteCarloBot(Game game, long moveTime, int threads, int maxNodes, int playoutsPerLeaf) {
+		super("MonteCarloBot");
+		this.game = game;
+		this.moveTime = moveTime;
+		this.threads = threads;
+		this.maxNodes = maxNodes;
+		this.playoutsPerLeaf = playoutsPerLeaf;
+	}
+	
+	public long getMoveTime() {
+		return moveTime;
+	}
+
+	public void setMoveTime(long moveTime) {
+		this.moveTime = moveTime;
+	}
+	
+	public int getThreads() {
+		return threads;
+	}
+
+	@Override
+	public String getName() {
+		return "MonteCarloBot";
+	}
+	
+	@Override
+	public void run() {
+		// called on the bot executor when the game hands the turn to this bot (see Bot.notifyTurn)
+		// do move when it's (still) my turn
+		if (game.isItMyTurn(this)) {
+			executeMove();
+		}
+	}
+
+	// trees of the calling thread, started again if another bot used them last
+	protected MonteCarloSearch[] trees() {
+		Trees trees = TREES.get();
+		int count = Math.max(1, threads);
+		if (trees == null || trees.searches.length != count || trees.maxNodes != maxNodes || trees.playoutsPerLeaf != playoutsPerLeaf) {
+			MonteCarloSearch[] searches = new MonteCarloSearch[count];
+			for (int i = 0; i < count; i++) {
+				searches[i] = new MonteCarloSearch(maxNodes, playoutsPerLeaf, System.nanoTime() + i);
+			}
+			trees = new Trees(searches, maxNodes, playoutsPerLeaf);
+			TREES.set(trees);
+		} else if (trees.owner.get() != this) {
+			for (MonteCarloSearch search : trees.searches) search.clear();
+		}
+		trees.owner = new WeakReference<MonteCarloBot>(this);
+		return trees.searches;
+	}
+
+	protected void executeMove() {
+		
+		StacksBoard board = new StacksBoard();
+		board.loadFEN(game.getBoard());
+		char colour = game.nextPlayerString().charAt(0);
+		
+		int move = MonteCarloSearch.parallel(trees(), board, colour, moveTime);
+		
+		// give up when bot didn't find a move
+		if (move == -1) giveUp(game);
+		else {
+			String result = MoveGenerator.toMoveString(move);
+			if (!tryMove(game, result)) {
+				// give up when move was illegal
+				giveUp(game);
+			} 
+		}
+	}
+
+}
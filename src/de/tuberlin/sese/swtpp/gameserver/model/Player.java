@@ -50,6 +50,11 @@ public class Player implements Serializable{
 		return user;
 	}
 	
+	// user is not told about the player (see GameArchive.read)
+	public void setUser(User u) {
+		user = u;
+	}
+	
 	public Game getGame() {
 		return game;
 	}
@@ -4,6 +4,8 @@ import java.io.Serializable;
 
 /**
  * Container class for user statistics values.
+ * Counters are updated when a game of the user is finished (see addGame), the values
+ * in percent are computed from them: the history of the user is not needed.
  *
  */
 public class Statistics implements Serializable{
@@ -18,11 +20,50 @@ public class Statistics implements Serializable{
 	public int numWon;
 	public int numLost;
 	public int numDraw;
+	public long numMoves;   // moves of all finished games
 	public double avgMoves;
 	public double percentWon;
 	public double percentDraw;
 	public double percentLost;
+	// counts changes of the values (e.g. for ETags of statistics responses)
+	public volatile long version;
 
+	/**********************************
+	 * Counters
+	 **********************************/
+	
+	/**
+	 * Finished game of the user
+	 */
+	public void addGame(boolean won, boolean draw, int moves) {
+		if (draw) {
+			numDraw++;
+		} else if (won) {
+			numWon++;
+		} else {
+			numLost++;
+		}
+		numMoves += moves;
+		update();
+	}
+	
+	public void set(int won, int lost, int draw, long moves) {
+		numWon = won;
+		numLost = lost;
+		numDraw = draw;
+		numMoves = moves;
+		update();
+	}
+	
+	private void update() {
+		version++;
+		int nbTotal = numWon + numLost + numDraw;
+		avgMoves = nbTotal>0? (float)numMoves/(float)nbTotal:0.0;
+		percentWon = nbTotal>0? (float)numWon/(float)nbTotal*100:0;
+		percentDraw = nbTotal>0? (float)numDraw/(float)nbTotal*100:0;
+		percentLost = nbTotal>0? (float)numLost/(float)nbTotal*100:0;
+	}
+	
 	/**********************************
 	 * Derived values (for tournament)
 	 **********************************/
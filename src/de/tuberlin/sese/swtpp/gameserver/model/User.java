@@ -29,6 +29,9 @@ public class User implements Serializable{
 	private LinkedList<Player> activeParticipations = new LinkedList<Player>();
 	private LinkedList<Player> history = new LinkedList<Player>();
 	private Statistics stats = new Statistics();
+	
+	// adds the archived games to the history of all users when a history is needed the first time (see Persistence.load)
+	private static volatile Runnable historyLoader;
 
 	/**********************************
 	 * constructors
@@ -47,27 +50,61 @@ public class User implements Serializable{
 		return stats;
 	}
 	
+	public static void setHistoryLoader(Runnable loader) {
+		historyLoader = loader;
+	}
+	
+	// must not hold the monitor of a user: loader adds games to all users
+	private static void loadHistory() {
+		Runnable loader = historyLoader;
+		if (loader != null) loader.run();
+	}
+	
 	public void setName(String name) {
 		this.displayName = name;
 	}
 	
-	public void addParticipation(Player player) {
+	// participations are changed by the threads of different games: all access holds the monitor of the user
+	public synchronized void addParticipation(Player player) {
 		activeParticipations.add(player);
 	}
 	
-	public void finishGame(Player player) {
+	public synchronized void finishGame(Player player) {
 		activeParticipations.removeFirstOccurrence(player);
 		history.add(player);
 		// statistics have to be updated every time a game is finished(unfinished games are not considered)
-		updateStatistics();
+		Game g = player.getGame();
+		stats.addGame(player.isWinner(), g.isDraw(), g.getMoveCount());
 	}
 
-	public LinkedList<Player> getActiveParticipations() {
-		return activeParticipations;
+	/**
+	 * Finished game was moved to the archive: player is replaced by the one of the ArchivedGame
+	 * (game itself is not referenced anymore), removed if archived is null
+	 */
+	public synchronized void archiveGame(Player player, Player archived) {
+		int index = history.lastIndexOf(player);
+		if (index < 0) return;
+		if (archived != null) history.set(index, archived);
+		else history.remove(index);
+	}
+	
+	/**
+	 * Game of archive that is loaded (see GameArchive), statistics are not updated (see rebuildStatistics)
+	 */
+	public synchronized void addArchivedGame(Player archived) {
+		history.add(archived);
+	}
+
+	// copy: may be iterated while a game of the user is finished
+	public synchronized LinkedList<Player> getActiveParticipations() {
+		return new LinkedList<Player>(activeParticipations);
 	}
 
 	public LinkedList<Player> getHistory() {
-		return history;
+		loadHistory();
+		synchronized (this) {
+			return new LinkedList<Player>(history);
+		}
 	}
 
 	public String getName() {
@@ -97,16 +134,20 @@ public class User implements Serializable{
 		this.salt = salt;
 	}
 	
-	private void updateStatistics() {
-		int nbTotal =0;
+	/**
+	 * Counts statistics again from the whole history (see StatisticsRebuild): O(games played),
+	 * otherwise statistics are only updated when a game is finished
+	 */
+	public void rebuildStatistics() {
+		LinkedList<Player> finished = getHistory();
+		
 		int nbWon =0;
 		int nbLost =0;
 		int nbDraw =0;
-		int moves =0;
+		long moves =0;
 				
-		for (Player p: history) {
+		for (Player p: finished) {
 			Game g = p.getGame();
-			nbTotal++;
 			moves+=g.getMoveCount();
 			if (g.isDraw()) {
 				nbDraw++;
@@ -117,14 +158,9 @@ public class User implements Serializable{
 			}
 		}
 		
-		stats.numWon = nbWon;
-		stats.numLost = nbLost;
-		stats.numDraw = nbDraw;
-		stats.avgMoves = nbTotal>0? (float)moves/(float)nbTotal:0.0;
-		stats.percentWon = nbTotal>0? (float)nbWon/(float)nbTotal*100:0;
-		stats.percentDraw = nbTotal>0? (float)nbDraw/(float)nbTotal*100:0;
-		stats.percentLost = nbTotal>0? (float)nbLost/(float)nbTotal*100:0;
-		
+		synchronized (this) {
+			stats.set(nbWon, nbLost, nbDraw, moves);
+		}
 	}
 
 }
@@ -0,0 +1,258 @@
+package de.tuberlin.sese.swtpp.gameserver.model.deathstacks;
+
+/**
+ * Iterative deepening alpha-beta search (negamax) on the packed board.
+ * Searches until the time budget is used up and returns the best move of the last completed depth.
+ * The board is changed with doMove/undoMove during the search and is the same again afterwards.
+ * With a TranspositionTable, positions reached by different move orders are searched only once
+ * and the best move stored for a position is searched first.
+ */
+public class AlphaBetaSearch {
+
+	// score of a won position (minus ply -> faster wins are better)
+	public static final int WIN = 1000000;
+	public static final int MAX_PLY = 64;
+
+	private final StacksBoard board;
+	private final TranspositionTable table; // may be null
+	// move lists of all plies, each ply writes its moves behind the ones of the ply above
+	private final int[] moves = new int[MoveGenerator.MAX_MOVES * (MAX_PLY + 1)];
+
+	private long deadline;
+	private boolean stopped;
+	// set from another thread (see stop), checked together with the time
+	private volatile boolean stopRequested;
+	private long nodes;
+	private int completedDepth;
+	// first depth of iterative deepening (helpers of ParallelSearch start deeper)
+	private int startDepth = 1;
+
+	public AlphaBetaSearch(StacksBoard board) {
+		this(board, null);
+	}
+
+	public AlphaBetaSearch(StacksBoard board, TranspositionTable table) {
+		this.board = board;
+		this.table = table;
+	}
+
+	/*******************************************
+	 * Search
+	 ******************************************/
+
+	/**
+	 * @param colour colour to move ('r' or 'b')
+	 * @param timeMillis time budget for this move
+	 * @return best packed move (see MoveGenerator), -1 if colour has no legal move
+	 */
+	public int search(char colour, long timeMillis) {
+		return this.search(colour, timeMillis, MAX_PLY);
+	}
+
+	public int search(char colour, long timeMillis, int maxDepth) {
+		long now = System.currentTimeMillis();
+		this.deadline = timeMillis > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + timeMillis;
+		this.stopped = false;
+		this.nodes = 0L;
+		this.completedDepth = 0;
+		// hash of board has to know who is to move
+		this.board.setNextColour(colour);
+
+		int n = MoveGenerator.generate(this.board, colour, this.moves, 0);
+		if (n == 0) {
+			return -1;
+		}
+		int best = this.moves[0];
+		if (this.table != null) {
+			int stored = TranspositionTable.move(this.table.probe(this.board.hash()));
+			best = stored != 0 ? stored : best;
+		}
+		for (int depth = this.startDepth; depth <= Math.min(maxDepth, MAX_PLY - 1); depth++) {
+			int[] result = this.searchRoot(colour, depth, n, best);
+			if (this.stopped) {
+				break;
+			}
+			best = result[0];
+			this.completedDepth = depth;
+			if (this.table != null) {
+				this.table.store(this.board.hash(), depth, TranspositionTable.EXACT, result[1], best);
+			}
+			// won or lost for sure -> deeper search does not change anything
+			if (Math.abs(result[1]) >= WIN - MAX_PLY) {
+				break;
+			}
+		}
+		return best;
+	}
+
+	// @return {best move, score} of this iteration
+	private int[] searchRoot(char colour, int depth, int n, int previousBest) {
+		// search best move of previous iteration first
+		this.moveToFront(previousBest, 0, n);
+		char next = opponent(colour);
+		int alpha = -WIN - 1;
+		int best = previousBest;
+		for (int i = 0; i < n && !this.stopped; i++) {
+			int move = this.moves[i];
+			this.doMove(move);
+			int score = -this.negamax(next, depth - 1, -WIN - 1, -alpha, 1, n);
+			this.undoMove(move);
+			if (score > alpha && !this.stopped) {
+				alpha = score;
+				best = move;
+			}
+		}
+		return new int[] {best, alpha};
+	}
+
+	private int negamax(char colour, int depth, int alpha, int beta, int ply, int offset) {
+		// check time every 1024 nodes
+		if ((++this.nodes & 1023) == 0 && (this.stopRequested || System.currentTimeMillis() >= this.deadline)) {
+			this.stopped = true;
+		}
+		if (this.stopped) {
+			return 0;
+		}
+		// stored result of this position good enough?
+		int hashMove = 0;
+		long key = this.board.hash();
+		if (this.table != null) {
+			long entry = this.table.probe(key);
+			if (entry != 0L) {
+				hashMove = TranspositionTable.move(entry);
+				int stored = fromTable(TranspositionTable.score(entry), ply);
+				int bound = TranspositionTable.bound(entry);
+				if (TranspositionTable.depth(entry) >= depth
+						&& (bound == TranspositionTable.EXACT
+						|| (bound == TranspositionTable.LOWER && stored >= beta)
+						|| (bound == TranspositionTable.UPPER && stored <= alpha))) {
+					return stored;
+				}
+			}
+		}
+		int n = MoveGenerator.generate(this.board, colour, this.moves, offset);
+		// no move: all stacks belong to the opponent (or player is stuck) -> lost
+		if (n == 0) {
+			return -WIN + ply;
+		}
+		if (depth <= 0 || ply >= MAX_PLY) {
+			return this.evaluate(colour);
+		}
+		if (hashMove != 0) {
+			this.moveToFront(hashMove, offset, n);
+		}
+		char next = opponent(colour);
+		int alphaStart = alpha;
+		int best = 0;
+		for (int i = offset; i < offset + n; i++) {
+			int move = this.moves[i];
+			this.doMove(move);
+			int score = -this.negamax(next, depth - 1, -beta, -alpha, ply + 1, offset + n);
+			this.undoMove(move);
+			if (this.stopped) {
+				return 0;
+			}
+			if (score >= beta) {
+				this.store(key, depth, TranspositionTable.LOWER, score, ply, move);
+				return score;
+			}
+			if (score > alpha) {
+				alpha = score;
+				best = move;
+			}
+		}
+		this.store(key, depth, alpha > alphaStart ? TranspositionTable.EXACT : TranspositionTable.UPPER, alpha, ply, best);
+		return alpha;
+	}
+
+	private void store(long key, int depth, int bound, int score, int ply, int move) {
+		if (this.table != null) {
+			this.table.store(key, depth, bound, toTable(score, ply), move);
+		}
+	}
+
+	// wins are stored as distance from this position (not from root) -> valid for every path to it
+	static int toTable(int score, int ply) {
+		if (score >= WIN - MAX_PLY) {
+			return score + ply;
+		}
+		if (score <= -WIN + MAX_PLY) {
+			return score - ply;
+		}
+		return score;
+	}
+
+	static int fromTable(int score, int ply) {
+		if (score >= WIN - MAX_PLY) {
+			return score - ply;
+		}
+		if (score <= -WIN + MAX_PLY) {
+			return score + ply;
+		}
+		return score;
+	}
+
+	private void moveToFront(int move, int offset, int n) {
+		for (int i = offset; i < offset + n; i++) {
+			if (this.moves[i] == move) {
+				this.moves[i] = this.moves[offset];
+				this.moves[offset] = move;
+				return;
+			}
+		}
+	}
+
+	/*******************************************
+	 * Evaluation
+	 ******************************************/
+
+	/**
+	 * Score from view of colour: stacks controlled (top piece) and pieces in controlled stacks,
+	 * minus the same for the opponent
+	 */
+	public int evaluate(char colour) {
+		int score = 0;
+		for (int sq = 0; sq < StacksBoard.SQUARES; sq++) {
+			int height = this.board.heights[sq];
+			if (height == 0) {
+				continue;
+			}
+			int value = 100 + 10 * height;
+			score += this.board.top(sq) == colour ? value : -value;
+		}
+		return score;
+	}
+
+	/*******************************************
+	 * Helpers
+	 ******************************************/
+
+	private void doMove(int move) {
+		this.board.doMove(MoveGenerator.start(move), MoveGenerator.count(move), MoveGenerator.end(move));
+	}
+
+	private void undoMove(int move) {
+		this.board.undoMove(MoveGenerator.start(move), MoveGenerator.count(move), MoveGenerator.end(move));
+	}
+
+	static char opponent(char colour) {
+		return colour == 'r' ? 'b' : 'r';
+	}
+
+	// stop search from another thread (for good): best move of last completed depth is returned
+	public void stop() {
+		this.stopRequested = true;
+	}
+
+	public void setStartDepth(int startDepth) {
+		this.startDepth = startDepth;
+	}
+
+	public long getNodes() {
+		return this.nodes;
+	}
+
+	public int getCompletedDepth() {
+		return this.completedDepth;
+	}
+}
@@ -49,7 +49,7 @@ public class DeathStacksGame extends Game {
 	 ******************************************/
 	
 	@Override
-	public boolean addPlayer(Player player) {
+	public synchronized boolean addPlayer(Player player) {
 		if (!started) {
 			players.add(player);
 			
@@ -57,7 +57,9 @@ public class DeathStacksGame extends Game {
 				started = true;
 				this.redPlayer = players.get(0);
 				this.bluePlayer = players.get(1);
-				nextPlayer = this.redPlayer;
+				this.setNextPlayer(this.redPlayer);
+			} else {
+				this.publishSnapshot();
 			}
 			return true;
 		}
@@ -66,7 +68,7 @@ public class DeathStacksGame extends Game {
 	}
 
 	@Override
-	public String getStatus() {
+	public synchronized String getStatus() {
 		if (error) return "Error";
 		if (!started) return "Wait";
 		if (!finished) return "Started";
@@ -77,7 +79,7 @@ public class DeathStacksGame extends Game {
 	}
 	
 	@Override
-	public String gameInfo() {
+	public synchronized String gameInfo() {
 		String gameInfo = "";
 		
 		if(started) {
@@ -93,7 +95,7 @@ public class DeathStacksGame extends Game {
 	}	
 	
 	@Override
-	public String nextPlayerString() {
+	public synchronized String nextPlayerString() {
 		return isRedNext()? "r" : "b";
 	}
 
@@ -108,7 +110,7 @@ public class DeathStacksGame extends Game {
 	}
 	
 	@Override
-	public boolean callDraw(Player player) {
+	public synchronized boolean callDraw(Player player) {
 		
 		// save to status: player wants to call draw 
 		if (this.started && ! this.finished) {
@@ -125,11 +127,12 @@ public class DeathStacksGame extends Game {
 			redPlayer.finishGame();
 			bluePlayer.finishGame();
 		}	
+		this.publishSnapshot();
 		return true;
 	}
 	
 	@Override
-	public boolean giveUp(Player player) {
+	public synchronized boolean giveUp(Player player) {
 		if (started && !finished) {
 			if (this.redPlayer == player) { 
 				redPlayer.surrender();
@@ -143,6 +146,7 @@ public class DeathStacksGame extends Game {
 			surrendered = true;
 			redPlayer.finishGame();
 			bluePlayer.finishGame();
+			this.publishSnapshot();
 			
 			return true;
 		}
@@ -168,7 +172,7 @@ public class DeathStacksGame extends Game {
 	 * @param player
 	 * @return
 	 */
-	public boolean finish(Player player) {
+	public synchronized boolean finish(Player player) {
 		// public for tests
 		if (started && !finished) {
 			player.setWinner();
@@ -202,12 +206,13 @@ public class DeathStacksGame extends Game {
 	 ******************************************/
 	
 	@Override
-	public void setBoard(String state) {
+	public synchronized void setBoard(String state) {
 		this.gameBoard.loadFEN(state);
+		this.publishSnapshot();
 	}
 	
 	@Override
-	public String getBoard() {
+	public synchronized String getBoard() {
 		return this.gameBoard.toFENFromMatrix();
 	}
 	/**	
@@ -232,16 +237,19 @@ public class DeathStacksGame extends Game {
 	 * TODO: McCabe Metrics 25 rows pro function
 	 */
 	@Override
-	public boolean tryMove(String moveString, Player player) {
+	public synchronized boolean tryMove(String moveString, Player player) {
 		// Set rules:
 		this.gameRules.playerColour = this.isRedNext() ? 'r' : 'b';
+		this.gameBoard.setNextColour(this.gameRules.playerColour);
+		// parse supplied move only once:
+		int move = MoveGenerator.parse(moveString);
 		// game is not finished and the move is done by the correct player and this under game rules:
-		if (this.isFinished() || this.getNextPlayer() != player || this.gameRules.rules_preconditionsSatisfied(moveString) == false) {
+		if (this.isFinished() || this.getNextPlayer() != player || move == -1 || this.gameRules.moveIsLegal(move) == false) {
 			return false;
 		}
 		// perform the supplied move on board and write new state to inner-history of board :
 		this.history = this.gameBoard.updateHistory(this.history, moveString, player);
-		this.gameBoard.makeMove(moveString);
+		this.gameBoard.makeMove(MoveGenerator.start(move), MoveGenerator.count(move), MoveGenerator.end(move));
 		// Update history (see Game, see Move):
 		this.setHistory(this.history);
 		// End of move (check whether game is over):
@@ -252,14 +260,14 @@ public class DeathStacksGame extends Game {
 			this.draw = true;
 			this.finished = true;
 		}
-		// At the end another player must be next:
+		this.gameRules.updatePlayerColor();
+		// At the end another player must be next (last step: a bot may move right away):
 		if (this.isRedNext()) {	
 			this.setNextPlayer(bluePlayer);
 		}
 		else {
 			this.setNextPlayer(redPlayer);
 		}
-		this.gameRules.updatePlayerColor();
 		return true;
 	}
 		
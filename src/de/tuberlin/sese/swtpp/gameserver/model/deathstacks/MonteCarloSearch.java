@@ -0,0 +1,366 @@
+package de.tuberlin.sese.swtpp.gameserver.model.deathstacks;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Monte Carlo Tree Search (UCT) on the packed board.
+ *
+ * The tree is kept in primitive arrays (one index per node, children of a node are stored next
+ * to each other), random playouts run on a scratch board with a reusable move buffer -> a playout
+ * does not allocate anything.
+ * --> playouts per leaf: every selected leaf is scored with a batch of playouts
+ * --> tree reuse: the tree is kept between the moves of a game, the next search starts at the
+ * node of the new position (found by its hash) if it is in the tree
+ * --> root parallel: several searches with own trees can run in threads (see parallel),
+ * their visits of the root moves are added up. Helpers run on the shared threads of SearchHelpers.
+ */
+public class MonteCarloSearch {
+
+	// exploration constant of UCT
+	private static final double EXPLORATION = 1.4;
+	// playout is cut after this many plies and scored by counting stacks
+	private static final int MAX_PLAYOUT = 200;
+	private static final int MAX_PATH = 512;
+	private static final int INITIAL_NODES = 4096;
+
+	private final int maxNodes;
+	private final int playoutsPerLeaf;
+	private final SplittableRandom random;
+
+	/*
+	 * Tree: node i has children firstChild[i] .. firstChild[i]+childCount[i]-1
+	 * childCount = -1: not expanded yet. wins are counted for the player who made move[i].
+	 */
+	private int[] move;
+	private int[] firstChild;
+	private int[] childCount;
+	private int[] visits;
+	private float[] wins;
+	private long[] hash;
+	private int size;
+	private int root = -1;
+
+	// scratch boards and buffers, reused by every playout
+	private final StacksBoard board = new StacksBoard();
+	private final StacksBoard leaf = new StacksBoard();
+	private final int[] buffer = new int[MoveGenerator.MAX_MOVES];
+	private final int[] path = new int[MAX_PATH];
+
+	private long playouts;
+
+	/**
+	 * @param maxNodes size limit of tree (tree is started again when it is full)
+	 * @param playoutsPerLeaf playouts for every selected leaf
+	 * @param seed of random playouts
+	 */
+	public MonteCarloSearch(int maxNodes, int playoutsPerLeaf, long seed) {
+		this.maxNodes = Math.max(maxNodes, MoveGenerator.MAX_MOVES + 1);
+		this.playoutsPerLeaf = Math.max(1, playoutsPerLeaf);
+		this.random = new SplittableRandom(seed);
+		this.allocate(INITIAL_NODES);
+	}
+
+	/*******************************************
+	 * Search
+	 ******************************************/
+
+	public int search(StacksBoard position, char colour, long timeMillis) {
+		return this.search(position, colour, timeMillis, Long.MAX_VALUE);
+	}
+
+	/**
+	 * @param position is not changed
+	 * @param colour colour to move
+	 * @return most visited packed move (see MoveGenerator), -1 if colour has no legal move
+	 */
+	public int search(StacksBoard position, char colour, long timeMillis, long maxPlayouts) {
+		long now = System.currentTimeMillis();
+		long deadline = timeMillis > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + timeMillis;
+		this.playouts = 0L;
+
+		this.board.copyFrom(position);
+		this.board.setNextColour(colour);
+		this.reuseTree(this.board.hash());
+		if (this.childCount[this.root] == -1) {
+			this.expand(this.root, colour);
+		}
+		if (this.childCount[this.root] == 0) {
+			return -1;
+		}
+
+		while (this.playouts < maxPlayouts && System.currentTimeMillis() < deadline) {
+			this.board.copyFrom(position);
+			this.board.setNextColour(colour);
+			this.iterate(colour);
+		}
+		return this.move[this.bestChild(this.root)];
+	}
+
+	// one selection, expansion, batch of playouts and backpropagation
+	private void iterate(char rootColour) {
+		char colour = rootColour;
+		int node = this.root;
+		int length = 0;
+		this.path[length++] = node;
+
+		// selection
+		while (this.childCount[node] > 0 && length < MAX_PATH - 1) {
+			node = this.selectChild(node);
+			this.doMove(this.move[node]);
+			this.hash[node] = this.board.hash();
+			colour = opponent(colour);
+			this.path[length++] = node;
+		}
+		// expansion (leaf that was visited before)
+		if (this.childCount[node] == -1 && this.visits[node] > 0 && this.expand(node, colour) && this.childCount[node] > 0) {
+			node = this.firstChild[node] + this.random.nextInt(this.childCount[node]);
+			this.doMove(this.move[node]);
+			this.hash[node] = this.board.hash();
+			colour = opponent(colour);
+			this.path[length++] = node;
+		}
+
+		// simulation: win points for the player who moved into the leaf
+		char mover = opponent(colour);
+		float points = 0f;
+		if (this.childCount[node] == 0) {
+			// no move for colour -> lost
+			points = this.playoutsPerLeaf;
+		} else {
+			this.leaf.copyFrom(this.board);
+			for (int i = 0; i < this.playoutsPerLeaf; i++) {
+				if (i > 0) {
+					this.board.copyFrom(this.leaf);
+				}
+				char winner = this.playout(colour);
+				points += winner == mover ? 1f : winner == ' ' ? 0.5f : 0f;
+			}
+		}
+		this.playouts += this.playoutsPerLeaf;
+
+		// backpropagation: points change side every ply
+		for (int i = length - 1; i >= 0; i--) {
+			int n = this.path[i];
+			this.visits[n] += this.playoutsPerLeaf;
+			this.wins[n] += points;
+			points = this.playoutsPerLeaf - points;
+		}
+	}
+
+	private int selectChild(int node) {
+		int first = this.firstChild[node];
+		int end = first + this.childCount[node];
+		double logVisits = Math.log(Math.max(1, this.visits[node]));
+		int best = first;
+		double bestValue = -1.0;
+		for (int child = first; child < end; child++) {
+			if (this.visits[child] == 0) {
+				return child;
+			}
+			double value = this.wins[child] / this.visits[child]
+					+ EXPLORATION * Math.sqrt(logVisits / this.visits[child]);
+			if (value > bestValue) {
+				bestValue = value;
+				best = child;
+			}
+		}
+		return best;
+	}
+
+	private int bestChild(int node) {
+		int first = this.firstChild[node];
+		int best = first;
+		for (int child = first; child < first + this.childCount[node]; child++) {
+			if (this.visits[child] > this.visits[best]) {
+				best = child;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Random moves until one player has no move left
+	 * @return winning colour, ' ' if playout was cut and both control the same count of stacks
+	 */
+	private char playout(char colour) {
+		for (int ply = 0; ply < MAX_PLAYOUT; ply++) {
+			int n = MoveGenerator.generate(this.board, colour, this.buffer);
+			if (n == 0) {
+				return opponent(colour);
+			}
+			this.doMove(this.buffer[this.random.nextInt(n)]);
+			colour = opponent(colour);
+		}
+		int stacks = 0;
+		for (int sq = 0; sq < StacksBoard.SQUARES; sq++) {
+			char top = this.board.top(sq);
+			stacks += top == 'r' ? 1 : top == 'b' ? -1 : 0;
+		}
+		return stacks > 0 ? 'r' : stacks < 0 ? 'b' : ' ';
+	}
+
+	/*******************************************
+	 * Tree
+	 ******************************************/
+
+	/**
+	 * Creates children for all moves of colour
+	 * @return false if tree is full
+	 */
+	private boolean expand(int node, char colour) {
+		int n = MoveGenerator.generate(this.board, colour, this.buffer);
+		if (this.size + n > this.maxNodes) {
+			return false;
+		}
+		if (this.size + n > this.move.length) {
+			this.allocate(Math.min(this.maxNodes, Math.max(this.move.length * 2, this.size + n)));
+		}
+		this.firstChild[node] = this.size;
+		this.childCount[node] = n;
+		for (int i = 0; i < n; i++) {
+			this.newNode(this.buffer[i]);
+		}
+		return true;
+	}
+
+	private int newNode(int packedMove) {
+		int node = this.size++;
+		this.move[node] = packedMove;
+		this.firstChild[node] = -1;
+		this.childCount[node] = -1;
+		this.visits[node] = 0;
+		this.wins[node] = 0f;
+		this.hash[node] = 0L;
+		return node;
+	}
+
+	private void allocate(int capacity) {
+		if (this.move == null) {
+			this.move = new int[capacity];
+			this.firstChild = new int[capacity];
+			this.childCount = new int[capacity];
+			this.visits = new int[capacity];
+			this.wins = new float[capacity];
+			this.hash = new long[capacity];
+			return;
+		}
+		this.move = Arrays.copyOf(this.move, capacity);
+		this.firstChild = Arrays.copyOf(this.firstChild, capacity);
+		this.childCount = Arrays.copyOf(this.childCount, capacity);
+		this.visits = Arrays.copyOf(this.visits, capacity);
+		this.wins = Arrays.copyOf(this.wins, capacity);
+		this.hash = Arrays.copyOf(this.hash, capacity);
+	}
+
+	/**
+	 * Next search starts with a new tree (tree was used for another game), arrays are kept
+	 */
+	public void clear() {
+		this.size = 0;
+		this.root = -1;
+	}
+
+	/**
+	 * Keeps subtree of position if it was reached in the last search (own move + opponent's move),
+	 * otherwise starts with a new tree. Nodes outside the subtree stay in the arrays until the tree
+	 * is more than half full, then the tree is started again.
+	 */
+	private void reuseTree(long positionHash) {
+		int found = -1;
+		if (this.root != -1 && this.size < this.maxNodes / 2) {
+			found = this.findNode(this.root, positionHash, 2);
+		}
+		if (found == -1) {
+			this.size = 0;
+			found = this.newNode(0);
+		}
+		this.root = found;
+	}
+
+	private int findNode(int node, long positionHash, int depth) {
+		if (this.hash[node] == positionHash && node != this.root) {
+			return node;
+		}
+		if (depth == 0 || this.childCount[node] <= 0) {
+			return -1;
+		}
+		for (int child = this.firstChild[node]; child < this.firstChild[node] + this.childCount[node]; child++) {
+			int found = this.findNode(child, positionHash, depth - 1);
+			if (found != -1) {
+				return found;
+			}
+		}
+		return -1;
+	}
+
+	/*******************************************
+	 * Root parallel
+	 ******************************************/
+
+	/**
+	 * Runs all searches at the same time (searches[0] in calling thread), each with its own tree
+	 * @return move with most visits of all trees, -1 if colour has no legal move
+	 */
+	public static int parallel(MonteCarloSearch[] searches, StacksBoard position, char colour, long timeMillis) {
+		Runnable[] helpers = new Runnable[searches.length - 1];
+		// trees of helpers that did not get a thread in time are not searched for this position
+		boolean[] searched = new boolean[searches.length];
+		long start = System.currentTimeMillis();
+		for (int i = 1; i < searches.length; i++) {
+			final int helper = i;
+			StacksBoard copy = position.copy();
+			helpers[i - 1] = () -> {
+				long time = SearchHelpers.remaining(start, timeMillis);
+				if (time > 0) {
+					searched[helper] = searches[helper].search(copy, colour, time) != -1;
+				}
+			};
+		}
+		SearchHelpers running = new SearchHelpers(helpers);
+		int best = searches[0].search(position, colour, timeMillis);
+		running.join();
+		if (best == -1 || searches.length == 1) {
+			return best;
+		}
+		// all roots have the same children in the same order (same move generation)
+		MonteCarloSearch first = searches[0];
+		searched[0] = true;
+		int children = first.childCount[first.root];
+		long bestVisits = -1L;
+		for (int i = 0; i < children; i++) {
+			long sum = 0L;
+			for (int s = 0; s < searches.length; s++) {
+				MonteCarloSearch search = searches[s];
+				if (searched[s]) {
+					sum += search.visits[search.firstChild[search.root] + i];
+				}
+			}
+			if (sum > bestVisits) {
+				bestVisits = sum;
+				best = first.move[first.firstChild[first.root] + i];
+			}
+		}
+		return best;
+	}
+
+	/*******************************************
+	 * Helpers
+	 ******************************************/
+
+	private void doMove(int packedMove) {
+		this.board.doMove(MoveGenerator.start(packedMove), MoveGenerator.count(packedMove), MoveGenerator.end(packedMove));
+	}
+
+	private static char opponent(char colour) {
+		return colour == 'r' ? 'b' : 'r';
+	}
+
+	public long getPlayouts() {
+		return this.playouts;
+	}
+
+	public int getTreeSize() {
+		return this.size;
+	}
+}
@@ -0,0 +1,191 @@
+package de.tuberlin.sese.swtpp.gameserver.model.deathstacks;
+
+/**
+ * Lists all legal moves of a position (same rules as Rules, see rules_preconditionsSatisfied).
+ *
+ * Moves are packed into one int: start square, count of pieces and target square
+ * (square index like in StacksBoard). Moves are written into a buffer supplied by the caller,
+ * so generating moves does not allocate. A buffer of MAX_MOVES ints is always big enough.
+ */
+public final class MoveGenerator {
+
+	// every piece on the board can be the last one moved from its stack, and each (start, count) has at most 8 targets
+	public static final int MAX_MOVES = StacksBoard.MAX_PIECES * 8;
+
+	/**
+	 * TARGETS[start][count%10] = bitmask of all squares reachable from start with count (see Rules.distanceIsValid).
+	 * Rules only looks at count%10, so 10 entries per square are enough.
+	 */
+	private static final long[][] TARGETS = new long[StacksBoard.SQUARES][10];
+
+	static {
+		for (int start = 0; start < StacksBoard.SQUARES; start++) {
+			int x = StacksBoard.column(start);
+			int y = StacksBoard.row(start);
+			for (int count = 0; count < 10; count++) {
+				int[] xs = {Rules.goLeftDown(x, count), x, Rules.goRightUp(x, count)};
+				int[] ys = {Rules.goLeftDown(y, count), y, Rules.goRightUp(y, count)};
+				long targets = 0L;
+				for (int tx : xs) {
+					for (int ty : ys) {
+						targets |= 1L << StacksBoard.square(tx, ty);
+					}
+				}
+				// cannot go to the same position:
+				TARGETS[start][count] = targets & ~(1L << start);
+			}
+		}
+	}
+
+	private MoveGenerator() {
+	}
+
+	/*******************************************
+	 * Packed moves
+	 ******************************************/
+
+	public static int move(int start, int count, int end) {
+		return (start << 16) | (count << 8) | end;
+	}
+
+	public static int start(int move) {
+		return move >>> 16;
+	}
+
+	public static int count(int move) {
+		return (move >>> 8) & 0xFF;
+	}
+
+	public static int end(int move) {
+		return move & 0xFF;
+	}
+
+	// Move string for client/bots, e.g. d2-3-e3
+	public static String toMoveString(int move) {
+		return StacksBoard.squareName(start(move)) + "-" + count(move) + "-" + StacksBoard.squareName(end(move));
+	}
+
+	/**
+	 * Parses move string once (same format as Rules.moveStringFormatIsCorrect)
+	 * @return packed move or -1 if format is not correct
+	 */
+	public static int parse(String moveString) {
+		String[] parts = moveString.split("-");
+		// contains 3 parts: start, moves, end
+		if (parts.length != 3 || parts[0].length() != 2 || parts[1].equals("") || parts[2].length() != 2) {
+			return -1;
+		}
+		int count;
+		try {
+			count = Integer.parseInt(parts[1]);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+		int start = parseSquare(parts[0]);
+		int end = parseSquare(parts[2]);
+		// count of moves must be greater than zero and cannot be bigger than any stack:
+		if (start == -1 || end == -1 || count <= 0 || count > StacksBoard.MAX_PIECES) {
+			return -1;
+		}
+		return move(start, count, end);
+	}
+
+	// like StacksBoard.getSquareInMatrix, for 2 character positions
+	private static int parseSquare(String pos) {
+		int x = pos.charAt(0) - 'a' + 1;
+		int y = Character.getNumericValue(pos.charAt(1));
+		if (x < 1 || x > 6 || y < 1 || y > 6) {
+			return -1;
+		}
+		return StacksBoard.square(x, y);
+	}
+
+	/*******************************************
+	 * Generation and validation
+	 ******************************************/
+
+	/**
+	 * Square with too tall stack of colour, the player is forced to move from there (Too-Tall-Rule).
+	 * @return square, -1 if there is none, -2 if there are several (then no move is allowed, like in Rules.forcedMoveExists)
+	 */
+	public static int forcedSquare(StacksBoard board, char colour) {
+		int forced = -1;
+		for (int sq = 0; sq < StacksBoard.SQUARES; sq++) {
+			if (board.heights[sq] > 4 && board.top(sq) == colour) {
+				if (forced != -1) {
+					return -2;
+				}
+				forced = sq;
+			}
+		}
+		return forced;
+	}
+
+	/**
+	 * Writes all legal moves of colour into buffer, starting at index 0
+	 * @return count of moves
+	 */
+	public static int generate(StacksBoard board, char colour, int[] buffer) {
+		return generate(board, colour, buffer, 0);
+	}
+
+	/**
+	 * Writes all legal moves of colour into buffer, starting at offset
+	 * (one buffer can be shared by the plies of a search)
+	 * @return count of moves
+	 */
+	public static int generate(StacksBoard board, char colour, int[] buffer, int offset) {
+		int n = offset;
+		int forced = forcedSquare(board, colour);
+		if (forced == -2) {
+			return 0;
+		}
+		if (forced >= 0) {
+			// at most 4 pieces may remain on the forced stack
+			int height = board.heights[forced];
+			for (int count = height - 4; count <= height; count++) {
+				n = addTargets(forced, count, buffer, n);
+			}
+			return n - offset;
+		}
+		for (int sq = 0; sq < StacksBoard.SQUARES; sq++) {
+			int height = board.heights[sq];
+			if (height == 0 || board.top(sq) != colour) {
+				continue;
+			}
+			for (int count = 1; count <= height; count++) {
+				n = addTargets(sq, count, buffer, n);
+			}
+		}
+		return n - offset;
+	}
+
+	private static int addTargets(int start, int count, int[] buffer, int n) {
+		long targets = TARGETS[start][count%10];
+		while (targets != 0L) {
+			buffer[n++] = move(start, count, Long.numberOfTrailingZeros(targets));
+			targets &= targets - 1;
+		}
+		return n;
+	}
+
+	/**
+	 * Checks a packed move without generating all moves (table lookup for the distance)
+	 * @return true if colour may perform move on board
+	 */
+	public static boolean isLegal(StacksBoard board, char colour, int move) {
+		int start = start(move);
+		int count = count(move);
+		int height = board.heights[start];
+		// Player tries to access his own stack with enough pieces:
+		if (height < count || board.top(start) != colour) {
+			return false;
+		}
+		// Is player not forced to perform any other move:
+		int forced = forcedSquare(board, colour);
+		if (forced == -2 || (forced >= 0 && (forced != start || height - count > 4))) {
+			return false;
+		}
+		return (TARGETS[start][count%10] & (1L << end(move))) != 0L;
+	}
+}
@@ -0,0 +1,87 @@
+package de.tuberlin.sese.swtpp.gameserver.model.deathstacks;
+
+/**
+ * Parallel search (Lazy SMP): the same iterative deepening alpha-beta search runs in several
+ * threads on copies of the board. The threads share one TranspositionTable, so results found
+ * by one thread are used by the others. The table needs no locks: a torn entry does not pass
+ * the key check in probe.
+ * Helpers start at different depths, so they do not all search the same moves at the same time.
+ * All threads stop when the time is over or when the main search has finished.
+ * The main search runs in the calling thread, the helpers on the shared threads of SearchHelpers.
+ */
+public class ParallelSearch {
+
+	private final StacksBoard board;
+	private final TranspositionTable table;
+	private final int threads;
+
+	private long nodes;
+	private int completedDepth;
+
+	/**
+	 * @param threads count of threads including the calling thread
+	 */
+	public ParallelSearch(StacksBoard board, TranspositionTable table, int threads) {
+		this.board = board;
+		this.table = table;
+		this.threads = Math.max(1, threads);
+	}
+
+	public int search(char colour, long timeMillis) {
+		return this.search(colour, timeMillis, AlphaBetaSearch.MAX_PLY);
+	}
+
+	/**
+	 * @return best packed move of the deepest completed search, -1 if colour has no legal move
+	 */
+	public int search(char colour, long timeMillis, int maxDepth) {
+		AlphaBetaSearch[] searches = new AlphaBetaSearch[this.threads];
+		int[] results = new int[this.threads];
+		Runnable[] helpers = new Runnable[this.threads - 1];
+		long start = System.currentTimeMillis();
+
+		if (this.table != null) {
+			this.table.newSearch();
+		}
+		for (int i = 0; i < this.threads; i++) {
+			// main search (0) works on the board itself
+			searches[i] = new AlphaBetaSearch(i == 0 ? this.board : this.board.copy(), this.table);
+			searches[i].setStartDepth(1 + i % 2);
+		}
+		for (int i = 1; i < this.threads; i++) {
+			final int helper = i;
+			// helper that waited for a thread stops together with the main search
+			helpers[i - 1] = () -> results[helper] = searches[helper].search(colour,
+					SearchHelpers.remaining(start, timeMillis), maxDepth);
+		}
+		SearchHelpers running = new SearchHelpers(helpers);
+
+		results[0] = searches[0].search(colour, timeMillis, maxDepth);
+
+		// main search is done -> stop helpers
+		for (int i = 1; i < this.threads; i++) {
+			searches[i].stop();
+		}
+		running.join();
+
+		// take move of deepest search (main search if equal), helpers that did not run have depth 0
+		int best = 0;
+		this.nodes = 0L;
+		for (int i = 0; i < this.threads; i++) {
+			this.nodes += searches[i].getNodes();
+			if (searches[i].getCompletedDepth() > searches[best].getCompletedDepth()) {
+				best = i;
+			}
+		}
+		this.completedDepth = searches[best].getCompletedDepth();
+		return results[best];
+	}
+
+	public long getNodes() {
+		return this.nodes;
+	}
+
+	public int getCompletedDepth() {
+		return this.completedDepth;
+	}
+}
@@ -0,0 +1,161 @@
+package de.tuberlin.sese.swtpp.gameserver.model.deathstacks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Perft: counts all move sequences (leaf nodes) up to a given depth from a position.
+ * Used as correctness check of the move generation and as benchmark of the rules engine.
+ *
+ * Two implementations are counted:
+ * --> generator: MoveGenerator on the packed board with doMove/undoMove (fast path)
+ * --> rules: every move string is checked by the string checks of Rules and performed with
+ * StacksBoard.makeMove on a copy of the board (reference path, slow)
+ * Both have to give the same numbers.
+ *
+ * Usage: Perft depth [fen] [r|b] [generator|rules]
+ */
+public final class Perft {
+
+	public static final String START_FEN = "rr,rr,rr,rr,rr,rr/,,,,,/,,,,,/,,,,,/,,,,,/bb,bb,bb,bb,bb,bb";
+
+	// known leaf counts from START_FEN with red to move, index = depth
+	// (depth 1 to 4 counted with both implementations)
+	public static final long[] START_COUNTS = {1L, 48L, 2304L, 116928L, 5930128L, 309812386L};
+
+	private Perft() {
+	}
+
+	/*******************************************
+	 * generator
+	 ******************************************/
+
+	public static long perft(StacksBoard board, char colour, int depth) {
+		return perft(board, colour, depth, new int[MoveGenerator.MAX_MOVES * Math.max(depth, 1)], 0);
+	}
+
+	// buffer is shared by all plies: each ply writes its moves behind the moves of the ply above
+	private static long perft(StacksBoard board, char colour, int depth, int[] buffer, int offset) {
+		if (depth <= 0) {
+			return 1L;
+		}
+		int n = MoveGenerator.generate(board, colour, buffer, offset);
+		if (depth == 1) {
+			return n;
+		}
+		char next = colour == 'r' ? 'b' : 'r';
+		long nodes = 0L;
+		for (int i = offset; i < offset + n; i++) {
+			int move = buffer[i];
+			board.doMove(MoveGenerator.start(move), MoveGenerator.count(move), MoveGenerator.end(move));
+			nodes += perft(board, next, depth - 1, buffer, offset + n);
+			board.undoMove(MoveGenerator.start(move), MoveGenerator.count(move), MoveGenerator.end(move));
+		}
+		return nodes;
+	}
+
+	// Leaf count per root move
+	public static Map<String, Long> divide(StacksBoard board, char colour, int depth) {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		int[] moves = new int[MoveGenerator.MAX_MOVES];
+		int n = MoveGenerator.generate(board, colour, moves);
+		char next = colour == 'r' ? 'b' : 'r';
+		for (int i = 0; i < n; i++) {
+			int move = moves[i];
+			board.doMove(MoveGenerator.start(move), MoveGenerator.count(move), MoveGenerator.end(move));
+			result.put(MoveGenerator.toMoveString(move), perft(board, next, depth - 1));
+			board.undoMove(MoveGenerator.start(move), MoveGenerator.count(move), MoveGenerator.end(move));
+		}
+		return result;
+	}
+
+	/*******************************************
+	 * rules (reference)
+	 ******************************************/
+
+	public static long perftRules(String fen, char colour, int depth) {
+		if (depth <= 0) {
+			return 1L;
+		}
+		long nodes = 0L;
+		for (Map.Entry<String, Long> entry : divideRules(fen, colour, depth).entrySet()) {
+			nodes += entry.getValue();
+		}
+		return nodes;
+	}
+
+	// Leaf count per root move, moves found by trying every move string with Rules
+	public static Map<String, Long> divideRules(String fen, char colour, int depth) {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		StacksBoard board = new StacksBoard();
+		board.loadFEN(fen);
+		Rules rules = new Rules(board);
+		rules.playerColour = colour;
+		char next = colour == 'r' ? 'b' : 'r';
+
+		for (int start = 0; start < StacksBoard.SQUARES; start++) {
+			for (int count = 1; count <= board.height(start); count++) {
+				for (int end = 0; end < StacksBoard.SQUARES; end++) {
+					String moveString = StacksBoard.squareName(start) + "-" + count + "-" + StacksBoard.squareName(end);
+					if (!legalByRules(rules, moveString)) {
+						continue;
+					}
+					StacksBoard child = new StacksBoard();
+					child.loadFEN(fen);
+					child.makeMove(moveString);
+					result.put(moveString, perftRules(child.toFENFromMatrix(), next, depth - 1));
+				}
+			}
+		}
+		return result;
+	}
+
+	// all checks of Rules on the move string (without MoveGenerator)
+	static boolean legalByRules(Rules rules, String moveString) {
+		return rules.moveStringFormatIsCorrect(moveString)
+				&& !rules.forcedMoveExists(moveString)
+				&& rules.piecesBelongToPlayer(moveString)
+				&& rules.moveIsValid(moveString);
+	}
+
+	/*******************************************
+	 * command line
+	 ******************************************/
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.out.println("Usage: Perft depth [fen] [r|b] [generator|rules]");
+			return;
+		}
+		int depth = Integer.parseInt(args[0]);
+		String fen = args.length > 1 ? args[1] : START_FEN;
+		char colour = args.length > 2 ? args[2].charAt(0) : 'r';
+		boolean rules = args.length > 3 && args[3].equals("rules");
+
+		long time = System.nanoTime();
+		Map<String, Long> divide;
+		if (rules) {
+			divide = divideRules(fen, colour, depth);
+		} else {
+			StacksBoard board = new StacksBoard();
+			board.loadFEN(fen);
+			divide = divide(board, colour, depth);
+		}
+		time = System.nanoTime() - time;
+
+		long nodes = 0L;
+		for (Map.Entry<String, Long> entry : divide.entrySet()) {
+			System.out.println(entry.getKey() + ": " + entry.getValue());
+			nodes += entry.getValue();
+		}
+		System.out.println();
+		System.out.println("moves: " + divide.size());
+		System.out.println("nodes: " + nodes);
+		System.out.println("time:  " + time / 1000000 + " ms");
+		System.out.println("nps:   " + (time > 0 ? nodes * 1000000000L / time : 0L));
+
+		if (fen.equals(START_FEN) && colour == 'r' && depth < START_COUNTS.length) {
+			System.out.println(nodes == START_COUNTS[depth] ? "OK" : "MISMATCH, expected " + START_COUNTS[depth]);
+		}
+	}
+}
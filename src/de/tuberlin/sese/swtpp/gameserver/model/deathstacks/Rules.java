@@ -1,9 +1,5 @@
 package de.tuberlin.sese.swtpp.gameserver.model.deathstacks;
 
-import java.util.LinkedList;
-
-import de.tuberlin.sese.swtpp.gameserver.model.Player;
-
 /**
 	-> Checker for the supplied move's possibility
  	* 	to perform in the current game state/status:
@@ -16,6 +12,9 @@ import de.tuberlin.sese.swtpp.gameserver.model.Player;
 **/
 public class Rules implements java.io.Serializable {
 
+	// same as before the board was packed: rules of games in old databases are read
+	private static final long serialVersionUID = 6582178548081197551L;
+
 	StacksBoard testBoard;
 	public char playerColour;
 	
@@ -48,8 +47,8 @@ public class Rules implements java.io.Serializable {
 			}
 		}
 		// start and end fields exist on board:
-		boolean startExists = ( parts[0].length() == 2 && testBoard.getStart(moveString) != null );
-		boolean endExists = ( parts[2].length() == 2 && testBoard.getEnd(moveString) != null );
+		boolean startExists = ( parts[0].length() == 2 && testBoard.getStart(moveString) != -1 );
+		boolean endExists = ( parts[2].length() == 2 && testBoard.getEnd(moveString) != -1 );
 		
 		if (startExists == false || endExists == false) {
 			return false;
@@ -69,23 +68,21 @@ public class Rules implements java.io.Serializable {
 	 * but user only wants to move 2 from there -> 5 remain => not allowed)
 	 */
 	public boolean forcedMoveExists(String moveString) {
-		// IF ANY BOARDSQUARE HAS more than 4 chars in its linked list
-		// and top char is equal to this.playerColour
+		// IF ANY SQUARE has more than 4 pieces in its stack
+		// and top piece is equal to this.playerColour
 		// player is forced to move from there
-		for (int i = 1; i<=6; i++) {
-			for (int j = 1; j<=6; j++) {
-				LinkedList<Character> piecesOnPos = this.testBoard.gameMatrix[i][j].pieces;
-				if ((piecesOnPos.size()>4) == false || piecesOnPos.get(piecesOnPos.size()-1) != this.playerColour) {
-					continue;
-				}
-				// if player tries to go from another field than he should:
-				if (this.testBoard.getStart(moveString) != this.testBoard.gameMatrix[i][j]) {
-					return true;
-				}
-				// if player moves from forced position, but with no enough pieces:
-				if (piecesOnPos.size() - this.testBoard.getMovesCount(moveString) > 4) {
-					return true;	
-				}
+		for (int sq = 0; sq < StacksBoard.SQUARES; sq++) {
+			int height = this.testBoard.height(sq);
+			if ((height>4) == false || this.testBoard.top(sq) != this.playerColour) {
+				continue;
+			}
+			// if player tries to go from another field than he should:
+			if (this.testBoard.getStart(moveString) != sq) {
+				return true;
+			}
+			// if player moves from forced position, but with no enough pieces:
+			if (height - this.testBoard.getMovesCount(moveString) > 4) {
+				return true;	
 			}
 		}
 		return false;
@@ -97,7 +94,7 @@ public class Rules implements java.io.Serializable {
 	 * @return
 	 */
 	public boolean piecesBelongToPlayer(String moveString) {
-		if (this.testBoard.getStart(moveString).pieces.getLast() == this.playerColour) {
+		if (this.testBoard.top(this.testBoard.getStart(moveString)) == this.playerColour) {
 			return true;
 		}
 		else {
@@ -112,15 +109,15 @@ public class Rules implements java.io.Serializable {
 	 */
 	public boolean moveIsValid(String moveString) {
 		// move-string has following format: x*-n-y*
-		BoardSquare start = this.testBoard.getStart(moveString);
-		BoardSquare end = this.testBoard.getEnd(moveString);
+		int start = this.testBoard.getStart(moveString);
+		int end = this.testBoard.getEnd(moveString);
 		// cannot go to the same position:
-		if (start.Equals(end)) {
+		if (start == end) {
 			return false;
 		}
  		int movesCount = this.testBoard.getMovesCount(moveString);
 		// n cannot be bigger than count of figures i have on square:
-		if (start.pieces.size() < movesCount) {
+		if (this.testBoard.height(start) < movesCount) {
 			return false;
 		}
 		// where can it get? 
@@ -130,26 +127,17 @@ public class Rules implements java.io.Serializable {
 		}
 		return true;
 	}
-	// TODO: get int from char properly:
-	public boolean distanceIsValid(BoardSquare start, BoardSquare end, int movesCount) {
+	
+	public boolean distanceIsValid(int start, int end, int movesCount) {
 		// forwards/backwards
-		int xs = 0;
-		int xz = 0;
-		// SIGN MAP to INT: TODO
-		for (int i = 1; i<=6; i++) {
-			if (this.testBoard.signs[i-1] == start.x) {
-				xs = i;
-			}
-			if (this.testBoard.signs[i-1] == end.x) {
-				xz = i;
-			}
-		}
+		int xs = StacksBoard.column(start);
+		int xz = StacksBoard.column(end);
 		
-		int ys = start.y;
-		int yz = end.y;
+		int ys = StacksBoard.row(start);
+		int yz = StacksBoard.row(end);
 		// Can i get x_target/y_target pair by combinations of x and y with movesCount:
-		boolean xz_isOk = this.goLeftDown(xs, movesCount) == xz || this.goRightUp(xs, movesCount) == xz || xz == xs;
-		boolean yz_isOk = this.goLeftDown(ys, movesCount) == yz || this.goRightUp(ys, movesCount) == yz || yz == ys;
+		boolean xz_isOk = goLeftDown(xs, movesCount) == xz || goRightUp(xs, movesCount) == xz || xz == xs;
+		boolean yz_isOk = goLeftDown(ys, movesCount) == yz || goRightUp(ys, movesCount) == yz || yz == ys;
 		
 		if (xz_isOk && yz_isOk) {
 			return true;
@@ -158,45 +146,48 @@ public class Rules implements java.io.Serializable {
 		return false;
 	}
 
-	public int goLeftDown(int value, int movesCount) {
+	public static int goLeftDown(int value, int movesCount) {
 		int mc = movesCount%10;
 		if (value > mc) {
 			// do not mirror
 			return value-mc;
 		}
 		else {
-			return this.goRightUp(1, mc-(value-1));
+			return goRightUp(1, mc-(value-1));
 		}
 	}
 	
-	public int goRightUp(int value, int movesCount) {
+	public static int goRightUp(int value, int movesCount) {
 		int mc = movesCount%10;
 		if (6-value > mc) {
 			// do not mirror
 			return value+mc;
 		}
 		else {
-			return this.goLeftDown(6, mc-(6-value));
+			return goLeftDown(6, mc-(6-value));
 		}
 	}
 	
 	/**
 	 * For metrics: put on pre-conditions into one function:
+	 * the move string is parsed only once, then the packed move is checked (see MoveGenerator)
 	 */
 	public boolean rules_preconditionsSatisfied(String moveString) {
 		// Format of supplied move-String is correct:
-		if (this.moveStringFormatIsCorrect(moveString) == false) {
-			return false;
-		}
-		// Is player not forced to perform any other move:
-		if (this.forcedMoveExists(moveString)) {
-			return false;
-		}
-		// It is a valid move:
-		if (this.piecesBelongToPlayer(moveString) == false || this.moveIsValid(moveString) == false) {
+		int move = MoveGenerator.parse(moveString);
+		if (move == -1) {
 			return false;
 		}
-		return true;
+		return this.moveIsLegal(move);
+	}
+	
+	/**
+	 * Checks already parsed move: player is not forced to perform any other move, 
+	 * pieces belong to player and the distance is valid
+	 * @param move packed move (see MoveGenerator)
+	 */
+	public boolean moveIsLegal(int move) {
+		return MoveGenerator.isLegal(this.testBoard, this.playerColour, move);
 	}
 	
 	public void updatePlayerColor() {
@@ -211,11 +202,9 @@ public class Rules implements java.io.Serializable {
 	 */
 	public boolean gameOver() {
 		// playerColour has done the move -> if all the towers belong to him, he won:
-		for (int i = 1; i<7; i++) {
-			for (int j = 1; j<7; j++) {
-				if (this.testBoard.gameMatrix[i][j].pieces.size() > 0 && this.testBoard.gameMatrix[i][j].pieces.getLast() != this.playerColour) {
-					return false;
-				}
+		for (int sq = 0; sq < StacksBoard.SQUARES; sq++) {
+			if (this.testBoard.height(sq) > 0 && this.testBoard.top(sq) != this.playerColour) {
+				return false;
 			}
 		}
 		return true;
@@ -226,10 +215,16 @@ public class Rules implements java.io.Serializable {
 	 * @param args
 	 */
 	public boolean stateRepeatedTo3Time() {
+		// position counter of board: less than 3 -> certainly not repeated
+		if (this.testBoard.repetitions() < 3) {
+			return false;
+		}
+		// hash was seen 3 times: verify with FEN-States (hash collisions)
 		// iterate through game history -> if it contains current FEN-State three times, game is over:
 		int counter = 0;
-		for (int i = 0; i<this.testBoard.stateHistory.size(); i++) {
-			if (this.testBoard.stateHistory.get(i).equals(this.testBoard.toFENFromMatrix())) {
+		String current = this.testBoard.toFENFromMatrix();
+		for (String state : this.testBoard.stateHistory) {
+			if (state.equals(current)) {
 				counter++;
 			}
 			if (counter == 3) {
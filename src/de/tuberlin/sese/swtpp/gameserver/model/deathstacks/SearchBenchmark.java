@@ -0,0 +1,68 @@
+package de.tuberlin.sese.swtpp.gameserver.model.deathstacks;
+
+/**
+ * Benchmark of AlphaBetaSearch: time to depth and nodes per second for every depth,
+ * searched without table, with TranspositionTable and with TranspositionTable in several threads
+ * (ParallelSearch).
+ *
+ * Usage: SearchBenchmark maxDepth [table MB] [threads] [fen] [r|b]
+ */
+public final class SearchBenchmark {
+
+	private SearchBenchmark() {
+	}
+
+	/**
+	 * Searches fen to depth 1..maxDepth
+	 * @param table null to search without table
+	 * @return {time in ms, nodes} for every depth (index = depth - 1)
+	 */
+	public static long[][] run(String fen, char colour, int maxDepth, TranspositionTable table, int threads) {
+		long[][] result = new long[maxDepth][2];
+		for (int depth = 1; depth <= maxDepth; depth++) {
+			StacksBoard board = new StacksBoard();
+			board.loadFEN(fen);
+			if (table != null) {
+				table.clear();
+			}
+			ParallelSearch search = new ParallelSearch(board, table, threads);
+			long time = System.nanoTime();
+			search.search(colour, Long.MAX_VALUE, depth);
+			result[depth - 1][0] = (System.nanoTime() - time) / 1000000;
+			result[depth - 1][1] = search.getNodes();
+		}
+		return result;
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.out.println("Usage: SearchBenchmark maxDepth [table MB] [threads] [fen] [r|b]");
+			return;
+		}
+		int maxDepth = Integer.parseInt(args[0]);
+		int megabytes = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		String fen = args.length > 3 ? args[3] : Perft.START_FEN;
+		char colour = args.length > 4 ? args[4].charAt(0) : 'r';
+
+		// warm up (JIT)
+		run(fen, colour, Math.min(maxDepth, 4), new TranspositionTable(megabytes), threads);
+		run(fen, colour, Math.min(maxDepth, 4), null, 1);
+
+		long[][] plain = run(fen, colour, maxDepth, null, 1);
+		long[][] hashed = run(fen, colour, maxDepth, new TranspositionTable(megabytes), 1);
+		long[][] parallel = run(fen, colour, maxDepth, new TranspositionTable(megabytes), threads);
+
+		System.out.println("depth | no table: ms, nodes, nps | table " + megabytes + " MB: ms, nodes, nps"
+				+ " | table, " + threads + " threads: ms, nodes, nps");
+		for (int depth = 1; depth <= maxDepth; depth++) {
+			System.out.println(depth + " | " + format(plain[depth - 1]) + " | " + format(hashed[depth - 1])
+					+ " | " + format(parallel[depth - 1]));
+		}
+	}
+
+	private static String format(long[] result) {
+		long nps = result[0] > 0 ? result[1] * 1000 / result[0] : 0;
+		return result[0] + ", " + result[1] + ", " + nps;
+	}
+}
@@ -0,0 +1,85 @@
+package de.tuberlin.sese.swtpp.gameserver.model.deathstacks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Helpers of one parallel search (see ParallelSearch, MonteCarloSearch.parallel), run on threads that are
+ * created once and shared by all searches: the count of threads does not grow with the number of bot
+ * games and no thread is started per move. When all threads are busy the helpers wait in the queue,
+ * helpers that did not get a thread before the main search is done are not run at all.
+ */
+final class SearchHelpers {
+
+	// one thread per core, more helpers would only take time from each other
+	static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+	private static final ThreadPoolExecutor POOL = new ThreadPoolExecutor(THREADS, THREADS,
+			60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), runnable -> {
+		Thread thread = new Thread(runnable, "search-helper");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	static {
+		// no threads while no parallel search runs
+		POOL.allowCoreThreadTimeOut(true);
+	}
+
+	private final Runnable[] tasks;
+	private final CountDownLatch done;
+
+	/**
+	 * Starts helpers on the shared threads
+	 */
+	SearchHelpers(Runnable... helpers) {
+		this.tasks = new Runnable[helpers.length];
+		this.done = new CountDownLatch(helpers.length);
+		for (int i = 0; i < helpers.length; i++) {
+			Runnable helper = helpers[i];
+			this.tasks[i] = () -> {
+				try {
+					helper.run();
+				} finally {
+					this.done.countDown();
+				}
+			};
+			POOL.execute(this.tasks[i]);
+		}
+	}
+
+	/**
+	 * Waits until the running helpers are done (caller stops them before), helpers still in the queue
+	 * are taken out. Results of the helpers can be read afterwards.
+	 */
+	void join() {
+		for (Runnable task : this.tasks) {
+			if (POOL.remove(task)) {
+				this.done.countDown();
+			}
+		}
+		boolean interrupted = false;
+		while (true) {
+			try {
+				this.done.await();
+				break;
+			} catch (InterruptedException e) {
+				// helpers work on data of the caller: wait for them anyway
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Time of a helper that starts now, so that it stops when the main search stops
+	 * @param start of the main search (System.currentTimeMillis)
+	 */
+	static long remaining(long start, long timeMillis) {
+		return Math.max(0L, timeMillis - (System.currentTimeMillis() - start));
+	}
+}
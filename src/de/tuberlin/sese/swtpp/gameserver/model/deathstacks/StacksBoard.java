@@ -1,5 +1,7 @@
 package de.tuberlin.sese.swtpp.gameserver.model.deathstacks;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.HashMap;
 import java.util.LinkedList;
 
@@ -7,50 +9,140 @@ import de.tuberlin.sese.swtpp.gameserver.model.Move;
 import de.tuberlin.sese.swtpp.gameserver.model.Player;
 
 public class StacksBoard implements java.io.Serializable {
-	
+
+	// same as before the stacks were packed: boards of old databases are read (see readObject)
+	private static final long serialVersionUID = -5491098587781072240L;
+
 	public final int[] digits = {1, 2, 3, 4, 5, 6};
 	public final char[] signs = {'a', 'b', 'c', 'd', 'e', 'f'};
-	
-	HashMap<Integer, Character> signsMap;
+
+	// board is 6x6 -> 36 squares, square index = (y-1)*6 + (x-1)
+	public static final int SIZE = 6;
+	public static final int SQUARES = SIZE * SIZE;
+	// colours of a stack are kept in one long -> a stack (and the whole board) holds at most 64 pieces
+	public static final int MAX_PIECES = 64;
+
 	/**
-	 * Matrix of BoardSquares, where each SQUARE contains Stack of pieces (r or b) [see BoardSquare] and
-	 * each SQUARE also has it`s x-Position (as char from a to f) and y-Position (as integer from 1 to 6)
-	 * This matrix is used for cleaner and easier implementation of moves and game rules.
+	 * Packed board: each SQUARE is a stack of pieces (r or b), stored as its height and a bitmask of
+	 * colours. Bit i of colours[sq] is the i-th piece counted from the bottom of the stack, set = blue (b),
+	 * not set = red (r). The top of the stack is the bit heights[sq]-1.
+	 * No objects per square or per piece -> moves and rule checks do not allocate.
 	 */
-	BoardSquare[][] gameMatrix;
+	int[] heights;
+	long[] colours;
 	LinkedList<String> stateHistory;
-	
+
+	/**
+	 * Zobrist hash of the pieces on the board (see Zobrist), updated incrementally by makeMove.
+	 * nextColour is the colour to move, it is flipped with every move.
+	 * positionCounts counts how often each position hash was reached (repetition rule).
+	 */
+	long pieceHash;
+	char nextColour;
+	HashMap<Long, Integer> positionCounts;
+
 	public StacksBoard() {
-		this.signsMap = new HashMap<Integer, Character>();
-		signsMap.put(1, 'a');
-		signsMap.put(2, 'b');
-		signsMap.put(3, 'c');
-		signsMap.put(4, 'd');
-		signsMap.put(5, 'e');
-		signsMap.put(6, 'f');
-		// Create all the game fields:
-		this.gameMatrix = new BoardSquare[7][7]; // 7 because field [0][0] not used
-		
+		this.heights = new int[SQUARES];
+		this.colours = new long[SQUARES];
+
 		this.stateHistory = new LinkedList<String>();
-		
+		this.positionCounts = new HashMap<Long, Integer>();
+
 		// Fill it:
 		this.initMatrix();
 	}
-	
-	// Board Matrix update with supplied move: e.g. d2-3-e3
+
+	/*******************************************
+	 * Square helpers
+	 ******************************************/
+
+	// Square index from column (1 = a .. 6 = f) and row (1 .. 6)
+	public static int square(int x, int y) {
+		return (y-1)*SIZE + (x-1);
+	}
+	// Column of square: 1 = a .. 6 = f
+	public static int column(int square) {
+		return square%SIZE + 1;
+	}
+	// Row of square: 1 .. 6
+	public static int row(int square) {
+		return square/SIZE + 1;
+	}
+	// Square name as used in move strings, e.g. "d2"
+	public static String squareName(int square) {
+		return "" + (char)('a' + column(square) - 1) + row(square);
+	}
+	// Bitmask with the lowest n bits set
+	static long mask(int n) {
+		return n >= 64 ? -1L : (1L << n) - 1;
+	}
+
+	/*******************************************
+	 * Stack access
+	 ******************************************/
+
+	public int height(int square) {
+		return this.heights[square];
+	}
+
+	// Piece on given level of stack (0 = bottom)
+	public char pieceAt(int square, int level) {
+		return ((this.colours[square] >>> level) & 1L) != 0 ? 'b' : 'r';
+	}
+
+	// Top piece of stack, ' ' for empty square
+	public char top(int square) {
+		if (this.heights[square] == 0) {
+			return ' ';
+		}
+		return this.pieceAt(square, this.heights[square]-1);
+	}
+
+	/*******************************************
+	 * Moves
+	 ******************************************/
+
+	// Board update with supplied move: e.g. d2-3-e3
 	public void makeMove(String moveString) {
-		  int count = this.getMovesCount(moveString);
-		  
-		  BoardSquare start = this.getStart(moveString);
-		  
-		  BoardSquare end =  this.getEnd(moveString);
-		  
-		  end.putOnTopOfThisBS(start, count); //mglsweise: end = this.gameMatrix...
-		  
-		  // add new state to history:
-		  this.stateHistory.add(this.toFENFromMatrix());
-	}
-	
+		this.makeMove(this.getStart(moveString), this.getMovesCount(moveString), this.getEnd(moveString));
+	}
+
+	// Board update with already parsed move, new state is written to history
+	public void makeMove(int start, int count, int end) {
+		this.doMove(start, count, end);
+
+		// add new state to history:
+		this.stateHistory.add(this.toFENFromMatrix());
+		this.positionCounts.merge(this.pieceHash, 1, Integer::sum);
+	}
+
+	/**
+	 * Put {count} pieces from the top of start on top of end, without writing history
+	 * (for searches: can be taken back with undoMove)
+	 */
+	public void doMove(int start, int count, int end) {
+		int startHeight = this.heights[start] - count;
+		long moved = (this.colours[start] >>> startHeight) & mask(count);
+
+		// update hash: moved pieces leave start and are put on top of end
+		for (int i = 0; i < count; i++) {
+			long blueBit = (moved >>> i) & 1L;
+			this.pieceHash ^= Zobrist.piece(start, startHeight + i, blueBit) ^ Zobrist.piece(end, this.heights[end] + i, blueBit);
+		}
+		this.nextColour = this.nextColour == 'r' ? 'b' : 'r';
+
+		this.colours[start] &= mask(startHeight);
+		this.heights[start] = startHeight;
+
+		this.colours[end] |= moved << this.heights[end];
+		this.heights[end] += count;
+	}
+
+	// Take back doMove(start, count, end): the moved pieces are still on top of end
+	public void undoMove(int start, int count, int end) {
+		this.doMove(end, count, start);
+	}
+
 	// update history of the game with this move:
 	public LinkedList<Move> updateHistory(LinkedList<Move> prevHistory, String moveString, Player player) {
 		LinkedList<Move> result = prevHistory;
@@ -58,26 +150,28 @@ public class StacksBoard implements java.io.Serializable {
 		result.add(doneMove);
 		return result;
 	}
-	
+
 	// Get start field from supplied moveString
-	public BoardSquare getStart(String moveString) {
+	public int getStart(String moveString) {
 		String[] parts = moveString.split("-");
-		BoardSquare start = this.getSquareInMatrix(parts[0]);
-		return start;
+		return this.getSquareInMatrix(parts[0]);
 	}
 	// Get target field from supplied moveString
-	public BoardSquare getEnd(String moveString) {
+	public int getEnd(String moveString) {
 		String[] parts = moveString.split("-");
-		BoardSquare end = this.getSquareInMatrix(parts[2]);
-		return end;
+		return this.getSquareInMatrix(parts[2]);
 	}
 	// Get count of moves, we are supposed to do in supplied move string
 	public int getMovesCount(String moveString) {
 		String[] parts = moveString.split("-");
-		// TODO: is parts[1] integer? 
+		// TODO: is parts[1] integer?
 		return Integer.parseInt(parts[1]);
 	}
-	
+
+	/*******************************************
+	 * FEN
+	 ******************************************/
+
 	// From FEN String
 	public void loadFEN(String fen) {
 		// Make board empty:
@@ -85,71 +179,185 @@ public class StacksBoard implements java.io.Serializable {
 		// Create partitions of whole FEN (parts between '/'):
 		String[] rows = fen.split("/");
 		// Go through these rows-partitions and create separated (,) figures on board:
+		int pieces = 0;
 		for (int i = 0; i<6; i++) {
-			if (rows[i].equals(",,,,,") == true) { 
+			if (rows[i].equals(",,,,,") == true) {
 				continue;
 			}
 			String[] piecesOnRow = rows[i].split(",");
-			for (int j = 0; j<6; j++) {
-				if (j < piecesOnRow.length && piecesOnRow[j].equals("") == false) {
-					this.gameMatrix[j+1][(6-i)].putOnTopFromFEN(piecesOnRow[j]);
+			for (int j = 0; j<6 && j < piecesOnRow.length; j++) {
+				pieces += piecesOnRow[j].length();
+				if (pieces > MAX_PIECES) {
+					throw new IllegalArgumentException("Too many pieces on board: " + fen);
 				}
+				this.putOnTopFromFEN(square(j+1, 6-i), piecesOnRow[j]);
 			}
 		}
-		
+
 		// add loaded state to history:
 		this.stateHistory.add(fen);
+		this.positionCounts.merge(this.pieceHash, 1, Integer::sum);
 	}
-	
+
+	// Put pieces on top of stack based on FEN-String, e.g. bbr -> r under bb
+	void putOnTopFromFEN(int square, String s) {
+		for (int i = s.length()-1; i >= 0; i--) {
+			char c = s.charAt(i);
+			if (c == 'b') {
+				this.colours[square] |= 1L << this.heights[square];
+			} else if (c != 'r') {
+				throw new IllegalArgumentException("Unknown piece '" + c + "' in FEN");
+			}
+			this.pieceHash ^= Zobrist.piece(square, this.heights[square], c);
+			this.heights[square]++;
+		}
+	}
+
 	// To FEN String
 	public String toFENFromMatrix() {
-		// Our input matrix is our game matrix 
-		String fen = "";
+		StringBuilder fen = new StringBuilder(64);
 		// Iteration through the rows
-		for (int j = 6; j > 0; j-- ) {
-		// Iteration through the columns
-			for (int i = 1; i < 6; i++) {
-			    // Getting the first element and place it to the string with comma
-			    fen = fen + gameMatrix[i][j].getPiecesAsString() + ",";
+		for (int y = 6; y > 0; y--) {
+			// Iteration through the columns
+			for (int x = 1; x <= 6; x++) {
+				int sq = square(x, y);
+				// stack from top to bottom
+				for (int level = this.heights[sq]-1; level >= 0; level--) {
+					fen.append(this.pieceAt(sq, level));
+				}
+				if (x != 6) {
+					fen.append(',');
+				}
 			}
 			// position 61 without slash
-			if (j!=1){
-				fen = fen + gameMatrix[6][j].getPiecesAsString()+ "/";
-			}
-			else {
-				fen = fen + gameMatrix[6][j].getPiecesAsString();
+			if (y != 1) {
+				fen.append('/');
 			}
 		}
-		
-		return fen;
+		return fen.toString();
 	}
-	
+
 	/**
 	 * Can be used to initialize matrix
 	 * Can be used to set board free of pieces
 	 */
 	public void initMatrix() {
-		// Create board fields again:
-		for (int i = 1; i<=6; i++) {
-			for (int j = 1; j<=6; j++) {
-				BoardSquare square = new BoardSquare(signsMap.get(i), j);
-				gameMatrix[i][j] = square;
-			}
+		for (int sq = 0; sq < SQUARES; sq++) {
+			this.heights[sq] = 0;
+			this.colours[sq] = 0L;
 		}
+		this.pieceHash = 0L;
+		this.nextColour = 'r';
 	}
-	
-	public BoardSquare getSquareInMatrix(String pos) {
-		char[] posArray = pos.toCharArray();
 
-		for (int i = 1; i<=6; i++) {
-			for (int j = 1; j<=6; j++) {
-				if (this.gameMatrix[i][j].x == posArray[0] && 
-						this.gameMatrix[i][j].y == Character.getNumericValue(posArray[1])) {
-					return this.gameMatrix[i][j];
-				}
-			}
+	/**
+	 * Copy of the pieces, hash and colour to move (for searches in other threads), history is not copied
+	 */
+	public StacksBoard copy() {
+		StacksBoard copy = new StacksBoard();
+		copy.copyFrom(this);
+		return copy;
+	}
+
+	// Set pieces, hash and colour to move of other board (without allocating), history is not copied
+	public void copyFrom(StacksBoard other) {
+		System.arraycopy(other.heights, 0, this.heights, 0, SQUARES);
+		System.arraycopy(other.colours, 0, this.colours, 0, SQUARES);
+		this.pieceHash = other.pieceHash;
+		this.nextColour = other.nextColour;
+	}
+
+	/*******************************************
+	 * Hashing
+	 ******************************************/
+
+	// Hash of position and colour to move
+	public long hash() {
+		return this.nextColour == 'b' ? this.pieceHash ^ Zobrist.SIDE : this.pieceHash;
+	}
+
+	// Hash of the pieces only (repetition rule does not look at colour to move)
+	public long pieceHash() {
+		return this.pieceHash;
+	}
+
+	public char getNextColour() {
+		return this.nextColour;
+	}
+
+	// Colour to move is owned by the game, board only follows it
+	public void setNextColour(char colour) {
+		this.nextColour = colour;
+	}
+
+	// How often the current position was reached (including loaded states)
+	public int repetitions() {
+		Integer count = this.positionCounts.get(this.pieceHash);
+		return count == null ? 0 : count;
+	}
+
+	/*******************************************
+	 * Serialization
+	 ******************************************/
+
+	/**
+	 * Boards of old databases have a matrix of BoardSquares instead of packed stacks: pieces are put
+	 * on the packed stacks, positions are counted again from the history (repetition rule).
+	 * Colour to move is set by the game before every move.
+	 */
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		this.stateHistory = (LinkedList<String>) fields.get("stateHistory", null);
+
+		if (fields.getObjectStreamClass().getField("gameMatrix") == null) {
+			this.heights = (int[]) fields.get("heights", null);
+			this.colours = (long[]) fields.get("colours", null);
+			this.pieceHash = fields.get("pieceHash", 0L);
+			this.nextColour = fields.get("nextColour", 'r');
+			this.positionCounts = (HashMap<Long, Integer>) fields.get("positionCounts", null);
+			return;
+		}
+		StacksBoard board = new StacksBoard();
+		for (String fen : this.stateHistory) {
+			board.loadFEN(fen);
 		}
-		return null; 
+		board.initMatrix();
+		BoardSquare[][] matrix = (BoardSquare[][]) fields.get("gameMatrix", null);
+		for (int sq = 0; sq < SQUARES; sq++) {
+			board.putOnTopFromFEN(sq, matrix[column(sq)][row(sq)].getPiecesAsString());
+		}
+		this.heights = board.heights;
+		this.colours = board.colours;
+		this.pieceHash = board.pieceHash;
+		this.nextColour = board.nextColour;
+		this.positionCounts = board.positionCounts;
+	}
+
+	// final fields are not part of readFields: board gets them from the constructor
+	private Object readResolve() {
+		StacksBoard board = new StacksBoard();
+		board.copyFrom(this);
+		board.stateHistory = this.stateHistory;
+		board.positionCounts = this.positionCounts;
+		return board;
 	}
-	
+
+	/**
+	 * Square index for position like "d2"
+	 * @return -1 if the position is not on the board
+	 */
+	public int getSquareInMatrix(String pos) {
+		if (pos.length() < 2) {
+			return -1;
+		}
+		int x = pos.charAt(0) - 'a' + 1;
+		int y = Character.getNumericValue(pos.charAt(1));
+
+		if (x < 1 || x > 6 || y < 1 || y > 6) {
+			return -1;
+		}
+		return square(x, y);
+	}
+
 }
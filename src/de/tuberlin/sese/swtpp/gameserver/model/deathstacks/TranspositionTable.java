@@ -0,0 +1,108 @@
+package de.tuberlin.sese.swtpp.gameserver.model.deathstacks;
+
+/**
+ * Fixed size transposition table for AlphaBetaSearch, held in one long[] (no objects per entry).
+ *
+ * Each entry is 2 longs: the position hash XOR the data, and the data. The data packs
+ * score (bits 0-31), best move (bits 32-53), depth (bits 54-59), bound (bits 60-61) and
+ * the generation of the search that stored it (bits 62-63).
+ * An entry is replaced if it belongs to an older search or if the new depth is not smaller
+ * (depth-preferred).
+ */
+public class TranspositionTable {
+
+	public static final int EXACT = 0;
+	public static final int LOWER = 1; // score >= stored score (beta cutoff)
+	public static final int UPPER = 2; // score <= stored score (no move better than alpha)
+
+	private static final int BYTES_PER_ENTRY = 16;
+
+	private final long[] table;
+	private final int mask;
+	private int generation;
+
+	/**
+	 * @param megabytes memory budget, the table uses the largest power of 2 entries that fits in
+	 */
+	public TranspositionTable(int megabytes) {
+		long entries = Math.max(1L, (long) megabytes * 1024 * 1024 / BYTES_PER_ENTRY);
+		int size = Integer.highestOneBit((int) Math.min(entries, 1 << 28));
+		this.table = new long[size * 2];
+		this.mask = size - 1;
+	}
+
+	// new search (next move of bot): entries of older searches may be replaced
+	public void newSearch() {
+		this.generation = (this.generation + 1) & 3;
+	}
+
+	public void clear() {
+		java.util.Arrays.fill(this.table, 0L);
+	}
+
+	private int index(long key) {
+		return ((int) (key ^ (key >>> 32)) & this.mask) * 2;
+	}
+
+	/**
+	 * @return data of entry for key (decode with score/move/depth/bound), 0 if not found
+	 */
+	public long probe(long key) {
+		int i = this.index(key);
+		long data = this.table[i + 1];
+		// key and data are written separately: if they do not belong together, the check fails
+		if ((this.table[i] ^ data) != key) {
+			return 0L;
+		}
+		return data;
+	}
+
+	public void store(long key, int depth, int bound, int score, int move) {
+		int i = this.index(key);
+		long old = this.table[i + 1];
+		boolean sameKey = (this.table[i] ^ old) == key;
+		if (old != 0L && !sameKey && generation(old) == this.generation && depth < depth(old)) {
+			return;
+		}
+		// keep best move of same position if new entry has none
+		if (move == 0 && sameKey) {
+			move = move(old);
+		}
+		long data = (score & 0xFFFFFFFFL)
+				| ((long) (move & 0x3FFFFF) << 32)
+				| ((long) (depth & 0x3F) << 54)
+				| ((long) bound << 60)
+				| ((long) this.generation << 62);
+		this.table[i] = key ^ data;
+		this.table[i + 1] = data;
+	}
+
+	/*******************************************
+	 * Decode data
+	 ******************************************/
+
+	public static int score(long data) {
+		return (int) data;
+	}
+
+	// packed move (see MoveGenerator), 0 if none
+	public static int move(long data) {
+		return (int) (data >>> 32) & 0x3FFFFF;
+	}
+
+	public static int depth(long data) {
+		return (int) (data >>> 54) & 0x3F;
+	}
+
+	public static int bound(long data) {
+		return (int) (data >>> 60) & 3;
+	}
+
+	static int generation(long data) {
+		return (int) (data >>> 62) & 3;
+	}
+
+	public int getEntries() {
+		return this.mask + 1;
+	}
+}
@@ -0,0 +1,42 @@
+package de.tuberlin.sese.swtpp.gameserver.model.deathstacks;
+
+import java.util.Random;
+
+/**
+ * Zobrist keys for DeathStacks positions.
+ * Every (square, level in stack, colour) gets a random 64 bit key, the hash of a position is the
+ * XOR of the keys of all pieces on the board (plus SIDE if blue is to move). Moving pieces only
+ * changes the keys of the moved pieces, so the hash can be updated incrementally in makeMove.
+ * Keys are created from a fixed seed -> hashes stay the same across restarts (saved games).
+ */
+public final class Zobrist {
+
+	private static final long[] PIECES = new long[StacksBoard.SQUARES * StacksBoard.MAX_PIECES * 2];
+	public static final long SIDE;
+
+	static {
+		Random random = new Random(0x5EED_DEA7_57AC_C5L);
+		for (int i = 0; i < PIECES.length; i++) {
+			PIECES[i] = random.nextLong();
+		}
+		SIDE = random.nextLong();
+	}
+
+	private Zobrist() {
+	}
+
+	/**
+	 * @param square 0..35
+	 * @param level position in stack, 0 = bottom
+	 * @param colour 'r' or 'b'
+	 * @return key of this piece
+	 */
+	public static long piece(int square, int level, char colour) {
+		return PIECES[((square * StacksBoard.MAX_PIECES) + level) * 2 + (colour == 'b' ? 1 : 0)];
+	}
+
+	// Key of piece with colour given as bit (1 = blue) like in StacksBoard.colours
+	static long piece(int square, int level, long blueBit) {
+		return PIECES[((square * StacksBoard.MAX_PIECES) + level) * 2 + (int) blueBit];
+	}
+}
@@ -0,0 +1,484 @@
+package de.tuberlin.sese.swtpp.gameserver.persistence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import de.tuberlin.sese.swtpp.gameserver.control.GameFactory;
+import de.tuberlin.sese.swtpp.gameserver.model.ArchivedGame;
+import de.tuberlin.sese.swtpp.gameserver.model.Bot;
+import de.tuberlin.sese.swtpp.gameserver.model.Game;
+import de.tuberlin.sese.swtpp.gameserver.model.Move;
+import de.tuberlin.sese.swtpp.gameserver.model.Player;
+import de.tuberlin.sese.swtpp.gameserver.model.Statistics;
+import de.tuberlin.sese.swtpp.gameserver.model.User;
+import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.MoveGenerator;
+
+/**
+ * Compact binary snapshot of users and games (replaces Java serialization of the object graph).
+ * 
+ * Format (version 2), numbers as varints, strings as varint length + UTF-8:
+ * --> header: magic "DSDB", format version, Game.lastID, journal generation
+ * --> users: count, then ID, name, password hash, salt, statistics (won, lost, draw, moves; not in version 1)
+ * --> games: count, then type, ID, status flags, players (user ID or bot type, flags),
+ * moves (2 bytes each, see writeMove) and the board (packed stacks, see writeBoard)
+ * 
+ * A game is restored by performing its moves again (board, history and statistics are the same as before),
+ * the saved board is used to check the result.
+ * Encoded in memory (see encode) and written to a FileChannel, read from a memory mapped file.
+ * The games of the GameArchive use the same format.
+ *
+ */
+public class BinarySnapshot {
+	
+	public static final int MAGIC = 0x44534442; // "DSDB"
+	public static final int FORMAT_VERSION = 2;
+	
+	// game flags
+	private static final int STARTED = 1, FINISHED = 2, DRAW = 4, SURRENDERED = 8, ERROR = 16;
+	// player flags
+	private static final int BOT = 1, REQUESTED_DRAW = 2, GAVE_UP = 4, WINNER = 8;
+	// move that is not a DeathStacks move (followed by move string)
+	private static final int MOVE_STRING = 0xFFFF;
+	// board that is not 6x6 stacks (followed by board string)
+	private static final int BOARD_STRING = 0;
+	private static final int BOARD_STACKS = 1;
+	
+	// content of snapshot
+	public final Map<String, User> users;
+	public final LinkedList<Game> games;
+	public final int lastID;
+	public final long generation;
+	// false: statistics of the users have to be counted from their history (version 1)
+	public final boolean statistics;
+	
+	private BinarySnapshot(Map<String, User> users, LinkedList<Game> games, int lastID, long generation, boolean statistics) {
+		this.users = users;
+		this.games = games;
+		this.lastID = lastID;
+		this.generation = generation;
+		this.statistics = statistics;
+	}
+	
+	/**
+	 * @return true if file starts with magic of binary snapshot (otherwise Java serialization)
+	 */
+	public static boolean isBinary(File file) throws IOException {
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			return in.length() >= 4 && in.readInt() == MAGIC;
+		}
+	}
+	
+	/*******************************
+	 * Write
+	 ******************************/
+	
+	public static void write(File file, Map<String, User> users, List<Game> games, int lastID, long generation) throws IOException {
+		write(file, encode(users, games, lastID, generation));
+	}
+	
+	/**
+	 * Writes encoded snapshot (see encode) to disk
+	 */
+	public static void write(File file, byte[] snapshot) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+			channel.truncate(0);
+			ByteBuffer data = ByteBuffer.wrap(snapshot);
+			while (data.hasRemaining()) channel.write(data);
+			channel.force(true);
+		}
+	}
+	
+	/**
+	 * Snapshot in memory: state is captured while changes are locked, written to disk afterwards (see Persistence.compact)
+	 */
+	public static byte[] encode(Map<String, User> users, List<Game> games, int lastID, long generation) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + games.size() * 160);
+		Output out = new Output(Channels.newChannel(bytes));
+		out.buffer.putInt(MAGIC);
+		out.varint(FORMAT_VERSION);
+		out.varint(lastID);
+		out.varint(generation);
+		
+		out.varint(users.size());
+		for (User u : users.values()) {
+			out.string(u.getId());
+			out.string(u.getName());
+			out.string(u.getPwdhash());
+			out.bytes(u.getSalt() == null ? new byte[0] : u.getSalt());
+			// counters are changed by finished games: read together
+			synchronized (u) {
+				Statistics s = u.getStats();
+				out.varint(s.numWon);
+				out.varint(s.numLost);
+				out.varint(s.numDraw);
+				out.varint(s.numMoves);
+			}
+		}
+		
+		out.varint(games.size());
+		for (Game g : games) {
+			// the game must not change while it is written
+			synchronized (g) {
+				writeGame(out, g);
+			}
+		}
+		
+		out.flush();
+		return bytes.toByteArray();
+	}
+	
+	static void writeGame(Output out, Game g) throws IOException {
+		out.string(g.getType());
+		out.varint(g.getGameID());
+		out.u8((g.isStarted() ? STARTED : 0) | (g.isFinished() ? FINISHED : 0) | (g.isDraw() ? DRAW : 0)
+				| (g.isSurrendered() ? SURRENDERED : 0) | (g.isError() ? ERROR : 0));
+		
+		List<Player> players = g.getPlayers();
+		out.varint(players.size());
+		for (Player p : players) {
+			boolean bot = p.getUser() instanceof Bot;
+			out.u8((bot ? BOT : 0) | (p.requestedDraw() ? REQUESTED_DRAW : 0) | (p.surrendered() ? GAVE_UP : 0) | (p.isWinner() ? WINNER : 0));
+			out.string(bot ? botType((Bot) p.getUser()) : p.getUser().getId());
+		}
+		
+		List<Move> history = g.getHistory();
+		out.varint(history.size());
+		for (Move m : history) writeMove(out, m.getMove());
+		
+		writeBoard(out, g.getBoard());
+	}
+	
+	/**
+	 * DeathStacks move in 2 bytes: (start * 36 + end) * 16 + min(count - 1, 15), bigger counts follow as varint
+	 */
+	private static void writeMove(Output out, String move) throws IOException {
+		int packed = MoveGenerator.parse(move);
+		if (packed == -1) {
+			out.u16(MOVE_STRING);
+			out.string(move);
+			return;
+		}
+		int count = MoveGenerator.count(packed);
+		out.u16((MoveGenerator.start(packed) * 36 + MoveGenerator.end(packed)) * 16 + Math.min(count - 1, 15));
+		if (count > 15) out.varint(count - 16);
+	}
+	
+	/**
+	 * Board as 36 stacks: height, then colours of the pieces as bits (1 = blue), from bottom to top
+	 */
+	private static void writeBoard(Output out, String fen) throws IOException {
+		String[] rows = fen.split("/", -1);
+		boolean stacks = rows.length == 6;
+		for (int i = 0; stacks && i < rows.length; i++) {
+			stacks = rows[i].split(",", -1).length == 6 && rows[i].matches("[rb,]*");
+		}
+		if (!stacks) {
+			out.u8(BOARD_STRING);
+			out.string(fen);
+			return;
+		}
+		out.u8(BOARD_STACKS);
+		for (String row : rows) {
+			for (String stack : row.split(",", -1)) {
+				out.varint(stack.length());
+				// FEN lists top piece first
+				long bits = 0;
+				for (int level = 0; level < stack.length(); level++) {
+					if (stack.charAt(stack.length() - 1 - level) == 'b') bits |= 1L << level;
+				}
+				for (int b = 0; b < stack.length(); b += 8) out.u8((int) (bits >>> b) & 0xFF);
+			}
+		}
+	}
+	
+	// type for GameFactory.createBot
+	private static String botType(Bot bot) {
+		if (bot.getType() != null) return bot.getType();
+		// bot saved before bots knew their type
+		switch (bot.getClass().getSimpleName()) {
+			case "AlphaBetaBot": return "alphabeta";
+			case "MonteCarloBot": return "mcts";
+			default: return "haskell";
+		}
+	}
+	
+	/*******************************
+	 * Read
+	 ******************************/
+	
+	/**
+	 * Reads snapshot and restores all games (bots have to be paused, see Bot.pause)
+	 */
+	public static BinarySnapshot read(File file) throws IOException {
+		ByteBuffer in;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (in.getInt() != MAGIC) throw new IOException("no binary snapshot: " + file);
+		int version = (int) varint(in);
+		if (version < 1 || version > FORMAT_VERSION) throw new IOException("unknown snapshot version " + version);
+		int lastID = (int) varint(in);
+		long generation = varint(in);
+		
+		int userCount = (int) varint(in);
+		Map<String, User> users = new HashMap<String, User>(userCount * 2);
+		Map<User, long[]> statistics = new HashMap<User, long[]>(userCount * 2);
+		for (int i = 0; i < userCount; i++) {
+			String id = string(in);
+			User u = new User(string(in), id);
+			u.setPwdhash(string(in));
+			byte[] salt = bytes(in);
+			u.setSalt(salt.length == 0 ? null : salt);
+			users.put(id, u);
+			if (version >= 2) statistics.put(u, new long[] {varint(in), varint(in), varint(in), varint(in)});
+		}
+		
+		int gameCount = (int) varint(in);
+		LinkedList<Game> games = new LinkedList<Game>();
+		for (int i = 0; i < gameCount; i++) {
+			Game g = readGame(in, users, null, null);
+			if (g != null) games.add(g);
+		}
+		// finished games of the snapshot are counted already
+		for (Map.Entry<User, long[]> entry : statistics.entrySet()) {
+			long[] s = entry.getValue();
+			entry.getKey().getStats().set((int) s[0], (int) s[1], (int) s[2], s[3]);
+		}
+		return new BinarySnapshot(users, games, lastID, generation, version >= 2);
+	}
+	
+	/**
+	 * @param names display names of the players: game is read without its users (archived game, see GameArchive),
+	 * it is not added to the users and bots do not move. null: game is added to its users
+	 * @param registered archived game: users of the players (after the moves are performed, the users
+	 * are not changed), players without registered user get a new one
+	 */
+	static Game readGame(ByteBuffer in, Map<String, User> users, String[] names, Function<String, User> registered) throws IOException {
+		String type = string(in);
+		int id = (int) varint(in);
+		int flags = in.get() & 0xFF;
+		
+		Game g;
+		if (names == null) {
+			// game gets its old ID
+			Game.setLastID(id);
+			g = GameFactory.createGame(type);
+		} else {
+			g = GameFactory.createGame(type, id);
+		}
+		
+		int playerCount = (int) varint(in);
+		int[] playerFlags = new int[playerCount];
+		String[] playerIDs = new String[playerCount];
+		for (int i = 0; i < playerCount; i++) {
+			playerFlags[i] = in.get() & 0xFF;
+			String name = string(in);
+			playerIDs[i] = name;
+			User u;
+			if (names != null) {
+				// finished game is finished again by its moves: not with the registered users
+				u = new User(i < names.length ? names[i] : name, name);
+				if (g != null) g.addPlayer(new Player(u, g));
+				continue;
+			} else if ((playerFlags[i] & BOT) != 0) {
+				u = g == null ? null : GameFactory.createBot(name, g);
+			} else {
+				u = users.get(name);
+				if (u == null) {
+					u = new User(name, name);
+					users.put(name, u);
+				}
+			}
+			if (g != null && u != null) {
+				Player p = new Player(u, g);
+				u.addParticipation(p);
+				g.addPlayer(p);
+			}
+		}
+		
+		int moveCount = (int) varint(in);
+		List<String> moves = new ArrayList<String>(moveCount);
+		for (int i = 0; i < moveCount; i++) moves.add(readMove(in));
+		String board = readBoard(in);
+		
+		if (g == null) {
+			System.out.println("snapshot: unknown game type " + type + " of game " + id);
+			return null;
+		}
+		
+		// perform moves again
+		for (String move : moves) {
+			if (!g.tryMove(move, g.getNextPlayer())) {
+				System.out.println("snapshot: move " + move + " of game " + id + " not possible");
+				break;
+			}
+		}
+		List<Player> players = g.getPlayers();
+		for (int i = 0; i < players.size(); i++) {
+			Player p = players.get(i);
+			if ((playerFlags[i] & GAVE_UP) != 0 && !g.isFinished()) g.giveUp(p);
+			if ((playerFlags[i] & REQUESTED_DRAW) != 0 && !p.requestedDraw()) {
+				if (!g.isFinished()) g.callDraw(p);
+				else p.requestDraw();
+			}
+			if ((playerFlags[i] & WINNER) != 0 && !p.isWinner()) p.setWinner();
+		}
+		if ((flags & ERROR) != 0) g.setError(true);
+		
+		if (!board.equals(g.getBoard())) {
+			System.out.println("snapshot: board of game " + id + " differs from moves");
+			g.setBoard(board);
+		}
+		if (((flags & FINISHED) != 0) != g.isFinished() || ((flags & DRAW) != 0) != g.isDraw()) {
+			System.out.println("snapshot: status of game " + id + " differs from moves");
+		}
+		for (int i = 0; names != null && registered != null && i < players.size(); i++) {
+			User u = (playerFlags[i] & BOT) != 0 ? null : registered.apply(playerIDs[i]);
+			if (u != null) players.get(i).setUser(u);
+		}
+		return g;
+	}
+	
+	/**
+	 * Reads only status and players of a game written by writeGame (not its moves and board):
+	 * the game is added to the history of its users as ArchivedGame (bots are left out)
+	 */
+	static ArchivedGame readArchivedGame(ByteBuffer in, Function<String, User> users) {
+		String type = string(in);
+		int id = (int) varint(in);
+		int flags = in.get() & 0xFF;
+		
+		int playerCount = (int) varint(in);
+		int[] playerFlags = new int[playerCount];
+		String[] playerIDs = new String[playerCount];
+		for (int i = 0; i < playerCount; i++) {
+			playerFlags[i] = in.get() & 0xFF;
+			playerIDs[i] = string(in);
+		}
+		int moveCount = (int) varint(in);
+		
+		ArchivedGame g = new ArchivedGame(id, type, (flags & DRAW) != 0, (flags & SURRENDERED) != 0, moveCount);
+		for (int i = 0; i < playerCount; i++) {
+			User u = (playerFlags[i] & BOT) != 0 ? null : users.apply(playerIDs[i]);
+			if (u == null) continue;
+			Player p = new Player(u, g);
+			if ((playerFlags[i] & WINNER) != 0) p.setWinner();
+			u.addArchivedGame(p);
+		}
+		return g;
+	}
+	
+	private static String readMove(ByteBuffer in) {
+		int packed = in.getShort() & 0xFFFF;
+		if (packed == MOVE_STRING) return string(in);
+		int count = (packed & 15) + 1;
+		if (count == 16) count += (int) varint(in);
+		int squares = packed >>> 4;
+		return MoveGenerator.toMoveString(MoveGenerator.move(squares / 36, count, squares % 36));
+	}
+	
+	private static String readBoard(ByteBuffer in) {
+		if ((in.get() & 0xFF) == BOARD_STRING) return string(in);
+		StringBuilder fen = new StringBuilder(96);
+		for (int sq = 0; sq < 36; sq++) {
+			if (sq > 0) fen.append(sq % 6 == 0 ? '/' : ',');
+			int height = (int) varint(in);
+			long bits = 0;
+			for (int b = 0; b < height; b += 8) bits |= (long) (in.get() & 0xFF) << b;
+			for (int level = height - 1; level >= 0; level--) fen.append((bits >>> level & 1) != 0 ? 'b' : 'r');
+		}
+		return fen.toString();
+	}
+	
+	/*******************************
+	 * Encoding
+	 ******************************/
+	
+	// buffered output to channel
+	static final class Output {
+		private final WritableByteChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+		
+		Output(WritableByteChannel channel) {
+			this.channel = channel;
+		}
+		
+		void ensure(int bytes) throws IOException {
+			if (buffer.remaining() < bytes) flush();
+		}
+		
+		void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) channel.write(buffer);
+			buffer.clear();
+		}
+		
+		void u8(int value) throws IOException {
+			ensure(1);
+			buffer.put((byte) value);
+		}
+		
+		void u16(int value) throws IOException {
+			ensure(2);
+			buffer.putShort((short) value);
+		}
+		
+		void varint(long value) throws IOException {
+			ensure(10);
+			while ((value & ~0x7FL) != 0) {
+				buffer.put((byte) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			buffer.put((byte) value);
+		}
+		
+		void bytes(byte[] data) throws IOException {
+			varint(data.length);
+			if (data.length > buffer.capacity()) {
+				flush();
+				ByteBuffer direct = ByteBuffer.wrap(data);
+				while (direct.hasRemaining()) channel.write(direct);
+				return;
+			}
+			ensure(data.length);
+			buffer.put(data);
+		}
+		
+		void string(String s) throws IOException {
+			bytes((s == null ? "" : s).getBytes(StandardCharsets.UTF_8));
+		}
+	}
+	
+	static long varint(ByteBuffer in) {
+		long value = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) return value;
+		}
+	}
+	
+	private static byte[] bytes(ByteBuffer in) {
+		byte[] data = new byte[(int) varint(in)];
+		in.get(data);
+		return data;
+	}
+	
+	static String string(ByteBuffer in) {
+		return new String(bytes(in), StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,304 @@
+package de.tuberlin.sese.swtpp.gameserver.persistence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+import de.tuberlin.sese.swtpp.gameserver.model.Game;
+import de.tuberlin.sese.swtpp.gameserver.model.Player;
+import de.tuberlin.sese.swtpp.gameserver.model.User;
+
+/**
+ * Append-only archive of finished games: finished games are moved out of memory into the archive
+ * (see GameController.getGame), the snapshot only contains active games.
+ *
+ * Files:
+ * --> path: records of length, CRC32 and payload (display names of the players, game in the format of BinarySnapshot),
+ * read from memory mapped segments of the file: a record is read from the segment it starts in, segments are
+ * mapped with MAX_RECORD bytes of the next one (archive is not limited by the size of one mapping)
+ * --> path.index: offset of the record of every game ID (long per ID, 0 = not archived), memory mapped,
+ * the header holds length of the archive, count of games and last ID the index belongs to (see force)
+ * Records are not synced when appended: Persistence.compact forces the archive before the snapshot
+ * without the games is written. A torn record of a crash is cut off when the archive is opened
+ * (its game is still in snapshot and journal).
+ * Opening does not read the archive: only records appended after the last force are checked.
+ *
+ */
+public class GameArchive {
+
+	public static final int SEGMENT_SIZE = 1 << 28;
+	// payload of a record (game with more moves stays in memory)
+	public static final int MAX_RECORD = 1 << 20;
+
+	private static final int INDEX_HEADER = 16; // length (long), count (int), last ID (int)
+	private static final int INDEX_ENTRIES = 1024; // first size of index
+
+	private final FileChannel data;
+	private final FileChannel indexFile;
+	private final int segmentSize;
+	private MappedByteBuffer[] segments = new MappedByteBuffer[0]; // read only, mapped again when archive is longer
+	private MappedByteBuffer index;
+	private long length;
+	private final long opened;    // length of archive when it was opened
+	private int count = 0;
+	private int lastID = -1;
+
+	// encoding of the records, reused
+	private final ByteArrayOutputStream encoded = new ByteArrayOutputStream(1024);
+	private final BinarySnapshot.Output output = new BinarySnapshot.Output(Channels.newChannel(encoded));
+
+	public GameArchive(String path) throws IOException {
+		this(path, SEGMENT_SIZE);
+	}
+
+	/**
+	 * Opens archive, records after the part in the index are checked and added to the index
+	 */
+	@SuppressWarnings("resource")
+	public GameArchive(String path, int segmentSize) throws IOException {
+		this.segmentSize = segmentSize;
+		data = new RandomAccessFile(path, "rw").getChannel();
+		indexFile = new RandomAccessFile(path + ".index", "rw").getChannel();
+		index = indexFile.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(indexFile.size(), INDEX_HEADER + 8L * INDEX_ENTRIES));
+		length = data.size();
+		
+		long valid = index.getLong(0);
+		if (valid > 0 && valid <= length) {
+			count = index.getInt(8);
+			lastID = index.getInt(12);
+		} else {
+			// index does not belong to archive: built again
+			valid = 0;
+			for (int position = INDEX_HEADER; position < index.capacity(); position += 8) index.putLong(position, 0L);
+		}
+
+		// check records, torn tail is cut off
+		while (valid + 8 <= length) {
+			ByteBuffer in = map(valid, 8);
+			int size = in.getInt();
+			int checksum = in.getInt();
+			if (size < 0 || size > MAX_RECORD || valid + 8 + size > length) break;
+			in = map(valid, 8 + size);
+			in.position(in.position() + 8);
+			byte[] payload = new byte[size];
+			in.get(payload);
+			CRC32 crc = new CRC32();
+			crc.update(payload);
+			if ((int) crc.getValue() != checksum) break;
+
+			setOffset(gameID(ByteBuffer.wrap(payload)), valid);
+			valid += 8 + size;
+			count++;
+		}
+		if (valid < length) {
+			System.out.println("archive: torn record cut off at " + valid);
+			data.truncate(valid);
+			// mapped part of the cut off tail must not be read
+			segments = new MappedByteBuffer[0];
+		}
+		length = valid;
+		opened = valid;
+	}
+
+	/*******************************
+	 * Write
+	 ******************************/
+
+	/**
+	 * Appends finished game
+	 * @return false if game is archived already
+	 */
+	public synchronized boolean append(Game g) throws IOException {
+		if (contains(g.getGameID())) return false;
+
+		encoded.reset();
+		// game must not change while it is written
+		synchronized (g) {
+			List<Player> players = g.getPlayers();
+			output.varint(players.size());
+			for (Player p : players) output.string(p.getName());
+			BinarySnapshot.writeGame(output, g);
+		}
+		output.flush();
+		byte[] payload = encoded.toByteArray();
+		if (payload.length > MAX_RECORD) throw new IOException("game " + g.getGameID() + " is too big for the archive");
+
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		ByteBuffer record = ByteBuffer.allocate(8 + payload.length);
+		record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+		long offset = length;
+		while (record.hasRemaining()) data.write(record, offset + record.position());
+
+		length += record.capacity();
+		setOffset(g.getGameID(), offset);
+		count++;
+		return true;
+	}
+
+	/**
+	 * Archive and index on disk (before a snapshot without the archived games is written)
+	 */
+	public synchronized void force() throws IOException {
+		data.force(false);
+		index.putLong(0, length);
+		index.putInt(8, count);
+		index.putInt(12, lastID);
+		index.force();
+	}
+
+	public synchronized void close() {
+		try {
+			force();
+			data.close();
+			indexFile.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/*******************************
+	 * Read
+	 ******************************/
+
+	public boolean contains(int gameID) throws IOException {
+		return record(gameID) != null;
+	}
+
+	/**
+	 * Reads whole game, the game cannot be changed anymore
+	 * @param users registered users by ID (users are not changed), players without user get a new one
+	 * @return game, null if not archived
+	 */
+	public Game read(int gameID, Function<String, User> users) throws IOException {
+		ByteBuffer in = record(gameID);
+		if (in == null) return null;
+
+		String[] names = new String[(int) BinarySnapshot.varint(in)];
+		for (int i = 0; i < names.length; i++) names[i] = BinarySnapshot.string(in);
+		return BinarySnapshot.readGame(in, null, names, users);
+	}
+
+	/**
+	 * Adds all games archived before the archive was opened to the history of their users (see ArchivedGame),
+	 * statistics are not updated. Games archived later are in the history already.
+	 */
+	public void restoreHistory(Function<String, User> users) {
+		long position = 0;
+		while (position < opened) {
+			ByteBuffer in;
+			try {
+				in = payload(position);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+			if (in == null) return;
+			int size = in.remaining();
+			skipNames(in);
+			BinarySnapshot.readArchivedGame(in, users);
+			position += 8 + size;
+		}
+	}
+
+	public synchronized int getCount() {
+		return count;
+	}
+
+	// highest archived game ID, -1 if archive is empty
+	public synchronized int getLastID() {
+		return lastID;
+	}
+
+	// payload of record of game, null if not archived
+	private ByteBuffer record(int gameID) throws IOException {
+		ByteBuffer in;
+		synchronized (this) {
+			long offset = offset(gameID);
+			if (offset < 0) return null;
+			in = payload(offset);
+		}
+		// entry of a torn record (not part of the index) may point into another record
+		try {
+			if (in == null || gameID(in.duplicate()) != gameID) return null;
+		} catch (RuntimeException e) {
+			return null;
+		}
+		return in;
+	}
+
+	// payload of record at offset (limit is end of payload), null if it is not in the archive
+	private synchronized ByteBuffer payload(long offset) throws IOException {
+		ByteBuffer header = map(offset, 8);
+		if (header == null) return null;
+		int size = header.getInt();
+		if (size < 0 || size > MAX_RECORD) return null;
+		ByteBuffer in = map(offset, 8 + size);
+		if (in == null) return null;
+		in.position(in.position() + 8);
+		in.limit(in.position() + size);
+		return in;
+	}
+
+	/**
+	 * @return buffer at offset with at least bytes (at most 8 + MAX_RECORD) after it, null if archive is shorter
+	 */
+	private ByteBuffer map(long offset, int bytes) throws IOException {
+		if (offset < 0 || offset + bytes > length) return null;
+		int i = (int) (offset / segmentSize);
+		long start = (long) i * segmentSize;
+		if (i >= segments.length) segments = Arrays.copyOf(segments, i + 1);
+		MappedByteBuffer segment = segments[i];
+		if (segment == null || start + segment.capacity() < offset + bytes) {
+			// appended after segment was mapped
+			segment = data.map(FileChannel.MapMode.READ_ONLY, start, Math.min((long) segmentSize + 8 + MAX_RECORD, length - start));
+			segments[i] = segment;
+		}
+		ByteBuffer in = segment.duplicate();
+		in.position((int) (offset - start));
+		return in;
+	}
+
+	/*******************************
+	 * Index
+	 ******************************/
+
+	private long offset(int gameID) {
+		long position = INDEX_HEADER + 8L * gameID;
+		if (gameID < 0 || position + 8 > index.capacity()) return -1;
+		return index.getLong((int) position) - 1;
+	}
+
+	private void setOffset(int gameID, long offset) throws IOException {
+		long position = INDEX_HEADER + 8L * gameID;
+		if (position + 8 > index.capacity()) {
+			long capacity = index.capacity();
+			while (position + 8 > capacity) capacity *= 2;
+			index.force();
+			index = indexFile.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		}
+		index.putLong((int) position, offset + 1);
+		lastID = Math.max(lastID, gameID);
+	}
+
+	// game ID of payload (see BinarySnapshot.writeGame: type before ID)
+	private static int gameID(ByteBuffer payload) {
+		skipNames(payload);
+		BinarySnapshot.string(payload);
+		return (int) BinarySnapshot.varint(payload);
+	}
+
+	private static void skipNames(ByteBuffer in) {
+		int names = (int) BinarySnapshot.varint(in);
+		for (int i = 0; i < names; i++) BinarySnapshot.string(in);
+	}
+
+}
@@ -0,0 +1,414 @@
+package de.tuberlin.sese.swtpp.gameserver.persistence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of all changes (register, start, join, move, draw, give up).
+ * 
+ * Every change appends one record: length, CRC32 and payload (type, game ID, player index, strings).
+ * Records are written by one writer thread: all records appended while the last batch was
+ * written are written together and synced to disk with one force (group commit).
+ * Synchronous: a change waits for its record to be on disk (see commit). Otherwise the request does not
+ * wait for the disk and the writer collects the records of COALESCE_MILLIS before it writes.
+ * 
+ * Changes hold the read lock of the journal (beginChange/endChange), compaction (see Persistence) 
+ * holds the write lock: while the state of a snapshot is captured, no change is in progress.
+ * 
+ * A batch that cannot be written is cut off the file again (a torn record would cut off all records
+ * after it when the journal is replayed) and written again. When it still fails, the journal is failed:
+ * nothing is written anymore and changes are rejected (beginChange, sync) until the next snapshot
+ * contains the lost changes (see Persistence.compact, clearFailure).
+ *
+ */
+public class Journal {
+	
+	// record types
+	public static final byte REGISTER = 1; // args: user ID, name, password hash, salt
+	public static final byte START = 2;    // args: user ID, bots, game type
+	public static final byte JOIN = 3;     // args: user ID
+	public static final byte MOVE = 4;     // args: move
+	public static final byte DRAW = 5;
+	public static final byte GIVEUP = 6;
+	
+	// time to collect records before writing (not synchronous)
+	public static final long COALESCE_MILLIS = 20;
+	// attempts to write a batch and time between them
+	public static final int WRITE_ATTEMPTS = 3;
+	public static final long RETRY_MILLIS = 100;
+	
+	private final String path;     // journal files: path.generation
+	private final boolean synchronous;
+	private long generation;
+	private FileChannel channel;
+	
+	// records not written yet and sequence numbers of appended/written records
+	private List<byte[]> pending = new ArrayList<byte[]>();
+	private long appended = 0;
+	private long written = 0;
+	private int records = 0;       // records in current file
+	private boolean closed = false;
+	private IOException failure = null; // batch could not be written, see clearFailure
+	private long failedGeneration;
+	
+	private final ReentrantReadWriteLock changes = new ReentrantReadWriteLock();
+	private final Thread writer;
+	
+	/**
+	 * Opens journal file of generation for appending, records after a torn tail are cut off
+	 */
+	public Journal(String path, long generation, boolean synchronous) throws IOException {
+		this.path = path;
+		this.synchronous = synchronous;
+		this.generation = generation;
+		this.channel = open(file(path, generation));
+		
+		writer = new Thread(this::writeRecords, "journal-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	/*******************************
+	 * Changes
+	 ******************************/
+	
+	/**
+	 * @throws UncheckedIOException if the journal failed (change would not be saved)
+	 */
+	public void beginChange() {
+		changes.readLock().lock();
+		synchronized (this) {
+			if (failure != null) {
+				changes.readLock().unlock();
+				throw failed();
+			}
+		}
+	}
+	
+	public void endChange() {
+		changes.readLock().unlock();
+	}
+	
+	// no change in progress while locked (see Persistence.compact)
+	public void lockChanges() {
+		changes.writeLock().lock();
+	}
+	
+	public void unlockChanges() {
+		changes.writeLock().unlock();
+	}
+	
+	/**
+	 * Appends record (written by writer thread)
+	 * @return sequence number of record (see sync)
+	 */
+	public long append(byte type, int gameID, int player, String... args) {
+		byte[] record = encode(type, gameID, player, args);
+		synchronized (this) {
+			pending.add(record);
+			records++;
+			notifyAll();
+			return ++appended;
+		}
+	}
+	
+	/**
+	 * End of change: waits until record is on disk if journal is synchronous
+	 */
+	public void commit(long record) {
+		if (synchronous) sync(record);
+	}
+	
+	/**
+	 * Waits until record is on disk
+	 * @throws UncheckedIOException if the journal failed before the record was written
+	 */
+	public synchronized void sync(long record) {
+		if (!await(record) && failure != null) throw failed();
+	}
+	
+	// true when record is on disk, false when closed, failed or interrupted before
+	private synchronized boolean await(long record) {
+		while (written < record && !closed && failure == null) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return written >= record;
+	}
+	
+	private UncheckedIOException failed() {
+		return new UncheckedIOException("journal " + file(path, generation) + " failed", failure);
+	}
+	
+	public synchronized boolean isFailed() {
+		return failure != null;
+	}
+	
+	/**
+	 * Failed journal is used again: records that were not written are part of the snapshot
+	 * of generation (written after rotate), later failures are not cleared.
+	 */
+	public synchronized void clearFailure(long generation) {
+		if (failure == null || failedGeneration >= generation) return;
+		pending.clear();
+		written = appended;
+		failure = null;
+		notifyAll();
+	}
+	
+	/**
+	 * Waits until the records appended so far are on disk (or the journal failed)
+	 */
+	public void flush() {
+		await(appended());
+	}
+	
+	public synchronized int getRecords() {
+		return records;
+	}
+	
+	public synchronized long getGeneration() {
+		return generation;
+	}
+	
+	/**
+	 * Continues in the file of the next generation (changes have to be locked).
+	 * @return new generation
+	 */
+	public long rotate() throws IOException {
+		await(appended());
+		synchronized (this) {
+			channel.close();
+			generation++;
+			channel = open(file(path, generation));
+			records = 0;
+			return generation;
+		}
+	}
+	
+	public void close() {
+		await(appended());
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		try {
+			writer.join();
+			channel.close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private synchronized long appended() {
+		return appended;
+	}
+	
+	/*******************************
+	 * Writer thread (group commit)
+	 ******************************/
+	
+	private void writeRecords() {
+		while (true) {
+			List<byte[]> batch;
+			long last;
+			FileChannel target;
+			long targetGeneration;
+			boolean failed;
+			synchronized (this) {
+				while (pending.isEmpty() && !closed) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (pending.isEmpty()) return;
+				if (!synchronous) {
+					// collect burst of changes, written together (appends notify too: wait until the time is over)
+					long deadline = System.nanoTime() + COALESCE_MILLIS * 1000000;
+					long remaining;
+					while (!closed && (remaining = (deadline - System.nanoTime()) / 1000000) > 0) {
+						try {
+							wait(remaining);
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+				batch = pending;
+				pending = new ArrayList<byte[]>();
+				last = appended;
+				target = channel;
+				targetGeneration = generation;
+				failed = failure != null;
+			}
+			// records after lost ones are not written (see clearFailure)
+			if (failed) continue;
+			
+			IOException error = null;
+			try {
+				write(target, batch);
+			} catch (IOException e) {
+				e.printStackTrace();
+				error = e;
+			} catch (InterruptedException e) {
+				return;
+			}
+			
+			synchronized (this) {
+				if (error == null) {
+					written = last;
+				} else {
+					failure = error;
+					failedGeneration = targetGeneration;
+				}
+				notifyAll();
+			}
+		}
+	}
+	
+	// batch is written completely or not at all
+	private static void write(FileChannel target, List<byte[]> batch) throws IOException, InterruptedException {
+		long start = target.position();
+		for (int attempt = 1; ; attempt++) {
+			try {
+				ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+				long size = 0;
+				for (int i = 0; i < buffers.length; i++) {
+					buffers[i] = ByteBuffer.wrap(batch.get(i));
+					size += buffers[i].remaining();
+				}
+				while (size > 0) size -= target.write(buffers);
+				target.force(false);
+				return;
+			} catch (IOException e) {
+				// part of the batch would cut off all records written after it when the journal is replayed
+				target.truncate(start);
+				target.position(start);
+				if (attempt >= WRITE_ATTEMPTS) throw e;
+			}
+			Thread.sleep(RETRY_MILLIS);
+		}
+	}
+	
+	/*******************************
+	 * Records
+	 ******************************/
+	
+	/**
+	 * One change read from the journal
+	 */
+	public static final class Record {
+		public final byte type;
+		public final int gameID;
+		public final int player;   // index of player in game, -1 if none
+		public final String[] args;
+		
+		Record(byte type, int gameID, int player, String[] args) {
+			this.type = type;
+			this.gameID = gameID;
+			this.player = player;
+			this.args = args;
+		}
+	}
+	
+	private static byte[] encode(byte type, int gameID, int player, String[] args) {
+		try {
+			ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+			DataOutputStream out = new DataOutputStream(payload);
+			out.writeByte(type);
+			out.writeInt(gameID);
+			out.writeInt(player);
+			out.writeByte(args.length);
+			for (String arg : args) out.writeUTF(arg == null ? "" : arg);
+			byte[] data = payload.toByteArray();
+			
+			CRC32 crc = new CRC32();
+			crc.update(data);
+			ByteBuffer record = ByteBuffer.allocate(8 + data.length);
+			record.putInt(data.length).putInt((int) crc.getValue()).put(data);
+			return record.array();
+		} catch (IOException e) {
+			// not possible for byte arrays
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Reads all complete records of a journal file
+	 * @return length of the complete records (rest of file is a torn record of a crash)
+	 */
+	public static long replay(File file, Consumer<Record> handler) throws IOException {
+		long valid = 0;
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			long length = in.length();
+			while (valid + 8 <= length) {
+				in.seek(valid);
+				int size = in.readInt();
+				int checksum = in.readInt();
+				if (size < 0 || valid + 8 + size > length) break;
+				byte[] data = new byte[size];
+				in.readFully(data);
+				CRC32 crc = new CRC32();
+				crc.update(data);
+				if ((int) crc.getValue() != checksum) break;
+				
+				handler.accept(decode(data));
+				valid += 8 + size;
+			}
+		} catch (EOFException e) {
+			// torn record
+		}
+		return valid;
+	}
+	
+	private static Record decode(byte[] data) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		byte type = in.readByte();
+		int gameID = in.readInt();
+		int player = in.readInt();
+		String[] args = new String[in.readUnsignedByte()];
+		for (int i = 0; i < args.length; i++) args[i] = in.readUTF();
+		return new Record(type, gameID, player, args);
+	}
+	
+	/*******************************
+	 * Files
+	 ******************************/
+	
+	public static File file(String path, long generation) {
+		return new File(path + "." + generation);
+	}
+	
+	// cuts off torn tail and positions channel at the end
+	private static FileChannel open(File file) throws IOException {
+		long valid = file.exists() ? replay(file, record -> {}) : 0;
+		@SuppressWarnings("resource")
+		FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+		channel.truncate(valid);
+		channel.position(valid);
+		return channel;
+	}
+
+}
@@ -0,0 +1,369 @@
+package de.tuberlin.sese.swtpp.gameserver.persistence;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import de.tuberlin.sese.swtpp.gameserver.control.GameController;
+import de.tuberlin.sese.swtpp.gameserver.control.UserController;
+import de.tuberlin.sese.swtpp.gameserver.model.Bot;
+import de.tuberlin.sese.swtpp.gameserver.model.Game;
+import de.tuberlin.sese.swtpp.gameserver.model.User;
+
+/**
+ * Persistence of users and games: snapshot of the whole state plus journal of the changes since
+ * (see Journal). A request only appends its change to the journal, the snapshot is written
+ * again from time to time (compaction), then the journal starts again.
+ * 
+ * Files: path (snapshot, see BinarySnapshot), path.journal.N (journal of generation N),
+ * path.archive (finished games, see GameArchive).
+ * The snapshot stores the generation of the journal that continues it.
+ *
+ */
+public class Persistence {
+	
+	// compaction: checked every interval, done when journal has enough records
+	public static final long COMPACT_INTERVAL = 60000;
+	public static final int COMPACT_RECORDS = 1000;
+	// requests wait until their change is on disk (otherwise written in background, see Journal)
+	public static final boolean SYNCHRONOUS_COMMIT = false;
+	// history of the users (archived games) is not loaded at startup: loaded when it is needed first
+	// (statistics are counters in the snapshot, see Statistics)
+	public static final boolean LAZY_LOADING = true;
+	
+	private final String path;
+	private final boolean lazy;
+	private final boolean synchronous;
+	private Journal journal;
+	private GameArchive archive;
+	private ScheduledExecutorService compaction;
+	private Thread shutdownHook;
+	// false: snapshot without statistics, counted again from the history of the users
+	private boolean statisticsLoaded = true;
+	// database that cannot be read is never overwritten
+	private boolean unreadable = false;
+	private boolean closed = false;
+	
+	public Persistence(String path) {
+		this(path, LAZY_LOADING);
+	}
+	
+	public Persistence(String path, boolean lazy) {
+		this(path, lazy, SYNCHRONOUS_COMMIT);
+	}
+	
+	public Persistence(String path, boolean lazy, boolean synchronous) {
+		this.path = path;
+		this.lazy = lazy;
+		this.synchronous = synchronous;
+	}
+	
+	/*******************************
+	 * Load
+	 ******************************/
+	
+	/**
+	 * Reads snapshot (users and active games) and replays journal, afterwards all changes are written to the journal.
+	 * Lazy: archived games are read when the history of a user is needed first (see User.getHistory)
+	 * @throws UncheckedIOException if the snapshot exists but cannot be read: the server must not start
+	 * without its users and games (file is left as it is)
+	 */
+	public synchronized void load() {
+		// bots must not move while their games are restored
+		Bot.pause();
+		long generation;
+		try {
+			generation = readSnapshot();
+		} catch (IOException e) {
+			unreadable = true;
+			closed = true;
+			Bot.resume();
+			throw new UncheckedIOException("database " + path + " cannot be read (move it away to start a new one)", e);
+		}
+		int maxID = Game.getLastID();
+		
+		try {
+			archive = new GameArchive(path + ".archive");
+			maxID = Math.max(maxID, archive.getLastID() + 1);
+			System.out.println("archive: " + archive.getCount() + " finished games");
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		
+		// replay all journals since snapshot, oldest first
+		String journalPath = path + ".journal";
+		long last = generation;
+		while (Journal.file(journalPath, last + 1).exists()) last++;
+		for (long g = generation; g <= last; g++) {
+			File file = Journal.file(journalPath, g);
+			if (!file.exists()) continue;
+			try {
+				int[] replayed = {0};
+				Journal.replay(file, record -> { apply(record); replayed[0]++; });
+				System.out.println("journal " + file + ": " + replayed[0] + " changes");
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		// restored games got their old IDs
+		for (Game game : GameController.getInstance().getGames()) maxID = Math.max(maxID, game.getGameID() + 1);
+		Game.setLastID(maxID);
+		
+		// finished games are only in the history of their users
+		if (archive != null) {
+			// games of the journal are replayed even if they were archived before the crash
+			// (statistics of snapshot do not count them), archived again (see archiveIfFinished)
+			GameController.getInstance().setArchive(archive);
+			GameController.getInstance().archiveFinished();
+			Runnable loader = historyLoader(archive);
+			if (lazy && statisticsLoaded) User.setHistoryLoader(loader);
+			else loader.run();
+		}
+		if (!statisticsLoaded) {
+			// old database: once, saved with the next snapshot
+			for (User u : UserController.getInstance().getUsers().values()) u.rebuildStatistics();
+		}
+		// journals included in snapshot
+		for (long g = generation - 1; Journal.file(journalPath, g).delete(); g--);
+		
+		try {
+			journal = new Journal(journalPath, last, synchronous);
+			UserController.getInstance().setJournal(journal);
+			GameController.getInstance().setJournal(journal);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		
+		Bot.resume();
+		GameController.getInstance().resumeBots();
+		
+		compaction = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "journal-compaction");
+			thread.setDaemon(true);
+			return thread;
+		});
+		compaction.scheduleWithFixedDelay(() -> {
+			// failed journal: changes are rejected until they are part of a snapshot
+			if (journal != null && (journal.getRecords() >= COMPACT_RECORDS || journal.isFailed())) compact();
+		}, COMPACT_INTERVAL, COMPACT_INTERVAL, TimeUnit.MILLISECONDS);
+		
+		// changes not written yet are written when the server stops without destroying the servlet
+		shutdownHook = new Thread(this::close, "persistence-shutdown");
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+	
+	// adds archived games to the history of the users once
+	private static Runnable historyLoader(GameArchive archive) {
+		return new Runnable() {
+			private boolean loaded = false;
+			
+			@Override
+			public synchronized void run() {
+				if (loaded) return;
+				long time = System.currentTimeMillis();
+				archive.restoreHistory(UserController.getInstance()::findUserByID);
+				loaded = true;
+				User.setHistoryLoader(null);
+				System.out.println("archive: history loaded in " + (System.currentTimeMillis() - time) + " ms");
+			}
+		};
+	}
+	
+	// replays one change with the same use cases as the requests (journal is not set yet)
+	private void apply(Journal.Record record) {
+		UserController users = UserController.getInstance();
+		GameController games = GameController.getInstance();
+		
+		if (record.type == Journal.REGISTER) {
+			users.restoreUser(record.args[0], record.args[1], record.args[2], Base64.getDecoder().decode(record.args[3]));
+			return;
+		}
+		if (record.type == Journal.START) {
+			User u = users.findUserByID(record.args[0]);
+			if (u != null) games.restoreGame(u, record.args[1], record.args[2], record.gameID);
+			return;
+		}
+		if (record.type == Journal.JOIN) {
+			User u = users.findUserByID(record.args[0]);
+			if (u != null) games.restoreJoin(u, record.gameID);
+			return;
+		}
+		
+		Game g = games.getGame(record.gameID);
+		if (g == null) return;
+		// changes that are already part of the game are rejected by the game
+		switch (record.type) {
+			case Journal.MOVE: g.tryMove(record.args[0], games.getPlayer(g, record.player)); break;
+			case Journal.DRAW: g.callDraw(games.getPlayer(g, record.player)); break;
+			case Journal.GIVEUP: g.giveUp(games.getPlayer(g, record.player)); break;
+		}
+	}
+	
+	/*******************************
+	 * Snapshot
+	 ******************************/
+	
+	/**
+	 * Writes snapshot of whole state, the journal starts again.
+	 * Changes are only locked while the journal is rotated and the state is encoded, the snapshot
+	 * is written to disk afterwards.
+	 */
+	public synchronized void compact() {
+		if (unreadable) return;
+		if (journal == null) {
+			try {
+				byte[] snapshot = encodeSnapshot(0);
+				forceArchive();
+				writeSnapshot(snapshot);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return;
+		}
+		long previous;
+		long generation;
+		byte[] snapshot;
+		// records so far are written before changes are locked
+		journal.flush();
+		journal.lockChanges();
+		try {
+			previous = journal.getGeneration();
+			generation = journal.rotate();
+			snapshot = encodeSnapshot(generation);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		} finally {
+			journal.unlockChanges();
+		}
+		// games that are not in the snapshot anymore
+		forceArchive();
+		if (!writeSnapshot(snapshot)) return;
+		// changes the journal lost are part of the snapshot
+		journal.clearFailure(generation);
+		// part of snapshot now
+		Journal.file(path + ".journal", previous).delete();
+	}
+	
+	private static byte[] encodeSnapshot(long generation) throws IOException {
+		return BinarySnapshot.encode(UserController.getInstance().getUsers(), GameController.getInstance().getGames(),
+				Game.getLastID(), generation);
+	}
+	
+	private void forceArchive() {
+		if (archive == null) return;
+		try {
+			archive.force();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	// false if old snapshot is still the current one
+	private boolean writeSnapshot(byte[] snapshot) {
+		File tmp = new File(path + ".tmp");
+		try {
+			BinarySnapshot.write(tmp, snapshot);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		try {
+			// old snapshot stays valid until the new one is complete
+			Files.move(tmp.toPath(), new File(path).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * @return generation of journal that continues the snapshot (0 if there is no snapshot)
+	 */
+	private long readSnapshot() throws IOException {
+		File file = new File(path);
+		if (!file.exists()) {
+			System.out.println("No database found. Starting new...");
+			return 0;
+		}
+		if (BinarySnapshot.isBinary(file)) {
+			BinarySnapshot snapshot = BinarySnapshot.read(file);
+			UserController.getInstance().setUsers(snapshot.users);
+			GameController.getInstance().setGames(snapshot.games);
+			Game.setLastID(snapshot.lastID);
+			statisticsLoaded = snapshot.statistics;
+			return snapshot.generation;
+		}
+		return readSerializedSnapshot();
+	}
+	
+	// database written with Java serialization (before BinarySnapshot)
+	@SuppressWarnings(value = { "unchecked" })
+	private long readSerializedSnapshot() throws IOException {
+		try (FileInputStream fis = new FileInputStream(path)) {
+			ObjectInputStream ois = new ObjectInputStream(fis);
+			
+			// nothing is set if the file cannot be read completely
+			Map<String, User> users = (Map<String, User>)ois.readObject();
+			LinkedList<Game> games = (LinkedList<Game>)ois.readObject();
+			int lastID = ois.readInt();
+			long generation;
+			try {
+				generation = ois.readLong();
+			} catch (EOFException e) {
+				// database written before the journal existed
+				generation = 0;
+			}
+			UserController.getInstance().setUsers(users);
+			GameController.getInstance().setGames(games);
+			Game.setLastID(lastID);
+			// statistics of users were saved without their counters
+			statisticsLoaded = false;
+			return generation;
+		} catch (ClassNotFoundException | ClassCastException e) {
+			throw new IOException("not a database of this server", e);
+		}
+	}
+	
+	/**
+	 * Writes final snapshot and closes journal (server shutdown)
+	 */
+	public synchronized void close() {
+		if (closed) return;
+		closed = true;
+		if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			} catch (IllegalStateException e) {
+				// already shutting down
+			}
+		}
+		if (compaction != null) compaction.shutdownNow();
+		compact();
+		if (journal != null) {
+			UserController.getInstance().setJournal(null);
+			GameController.getInstance().setJournal(null);
+			journal.close();
+			journal = null;
+		}
+		if (archive != null) {
+			User.setHistoryLoader(null);
+			GameController.getInstance().setArchive(null);
+			archive.close();
+			archive = null;
+		}
+	}
+
+}
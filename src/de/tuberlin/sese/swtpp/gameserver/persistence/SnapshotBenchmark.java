@@ -0,0 +1,135 @@
+package de.tuberlin.sese.swtpp.gameserver.persistence;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import de.tuberlin.sese.swtpp.gameserver.control.GameController;
+import de.tuberlin.sese.swtpp.gameserver.control.UserController;
+import de.tuberlin.sese.swtpp.gameserver.model.Bot;
+import de.tuberlin.sese.swtpp.gameserver.model.Game;
+import de.tuberlin.sese.swtpp.gameserver.model.User;
+import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.MoveGenerator;
+import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.StacksBoard;
+
+/**
+ * Compares Java serialization (test.db before BinarySnapshot) with BinarySnapshot:
+ * size of file, time to save and time to load, for a synthetic database of random games.
+ * 
+ * Usage: SnapshotBenchmark [games] [max moves per game] [directory]
+ */
+public final class SnapshotBenchmark {
+	
+	private SnapshotBenchmark() {
+	}
+	
+	public static void main(String[] args) throws Exception {
+		int gameCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int maxMoves = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+		File dir = new File(args.length > 2 ? args[2] : System.getProperty("java.io.tmpdir"));
+		
+		Bot.pause();
+		createGames(gameCount, maxMoves);
+		Map<String, User> users = UserController.getInstance().getUsers();
+		LinkedList<Game> games = GameController.getInstance().getGames();
+		int moves = 0;
+		for (Game g : games) moves += g.getMoveCount();
+		System.out.println("users: " + users.size() + ", games: " + games.size() + ", moves: " + moves);
+		System.out.println();
+		System.out.println(String.format("%-14s %12s %10s %10s", "format", "bytes", "save ms", "load ms"));
+		
+		// Java serialization
+		File serialized = new File(dir, "snapshot-benchmark.ser");
+		try {
+			long time = System.nanoTime();
+			try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(serialized))) {
+				oos.writeObject(users);
+				oos.writeObject(games);
+				oos.writeInt(Game.getLastID());
+			}
+			long save = System.nanoTime() - time;
+			time = System.nanoTime();
+			try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(serialized))) {
+				ois.readObject();
+				ois.readObject();
+				ois.readInt();
+			}
+			long load = System.nanoTime() - time;
+			print("serialization", serialized.length(), save, load);
+		} catch (StackOverflowError e) {
+			// object graph users -> players -> games -> players -> users is written recursively
+			System.out.println("serialization: stack overflow (run with bigger -Xss)");
+		}
+		
+		// binary snapshot
+		File binary = new File(dir, "snapshot-benchmark.bin");
+		long time = System.nanoTime();
+		BinarySnapshot.write(binary, users, games, Game.getLastID(), 0);
+		long save = System.nanoTime() - time;
+		time = System.nanoTime();
+		BinarySnapshot snapshot = BinarySnapshot.read(binary);
+		long load = System.nanoTime() - time;
+		print("binary", binary.length(), save, load);
+		
+		// same content after loading?
+		int same = 0;
+		for (Game g : snapshot.games) {
+			Game original = GameController.getInstance().getGame(g.getGameID());
+			if (original.getBoard().equals(g.getBoard()) && original.getStatus().equals(g.getStatus())
+					&& original.gameInfo().equals(g.gameInfo()) && original.getMoveCount() == g.getMoveCount()) same++;
+		}
+		System.out.println();
+		System.out.println("games restored equal: " + same + "/" + games.size());
+		
+		serialized.delete();
+		binary.delete();
+	}
+	
+	private static void print(String format, long bytes, long save, long load) {
+		System.out.println(String.format("%-14s %12d %10d %10d", format, bytes, save / 1000000, load / 1000000));
+	}
+	
+	// random games between random users: some running, most finished (won, given up or draw)
+	private static void createGames(int gameCount, int maxMoves) throws IOException {
+		UserController users = UserController.getInstance();
+		GameController controller = GameController.getInstance();
+		SplittableRandom random = new SplittableRandom(42);
+		int userCount = Math.max(2, gameCount / 10);
+		for (int i = 0; i < userCount; i++) {
+			users.restoreUser("user" + i, "User " + i, "hash" + i, new byte[32]);
+		}
+		
+		int[] buffer = new int[MoveGenerator.MAX_MOVES];
+		StacksBoard board = new StacksBoard();
+		for (int i = 0; i < gameCount; i++) {
+			User red = users.findUserByID("user" + random.nextInt(userCount));
+			User blue = users.findUserByID("user" + random.nextInt(userCount));
+			while (blue == red) blue = users.findUserByID("user" + random.nextInt(userCount));
+			
+			Game g = controller.getGame(controller.startGame(red, "", "deathstacks"));
+			controller.restoreJoin(blue, g.getGameID());
+			
+			int moves = random.nextInt(maxMoves + 1);
+			for (int m = 0; m < moves && !g.isFinished(); m++) {
+				board.loadFEN(g.getBoard());
+				char colour = g.nextPlayerString().charAt(0);
+				int n = MoveGenerator.generate(board, colour, buffer);
+				if (n == 0) break;
+				g.tryMove(MoveGenerator.toMoveString(buffer[random.nextInt(n)]), g.getNextPlayer());
+			}
+			int end = random.nextInt(10);
+			if (end < 6) g.giveUp(g.getNextPlayer());
+			else if (end < 8) {
+				g.callDraw(g.getPlayers().get(0));
+				g.callDraw(g.getPlayers().get(1));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,162 @@
+package de.tuberlin.sese.swtpp.gameserver.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import de.tuberlin.sese.swtpp.gameserver.control.GameController;
+import de.tuberlin.sese.swtpp.gameserver.control.GameFactory;
+import de.tuberlin.sese.swtpp.gameserver.control.UserController;
+import de.tuberlin.sese.swtpp.gameserver.model.Bot;
+import de.tuberlin.sese.swtpp.gameserver.model.Game;
+import de.tuberlin.sese.swtpp.gameserver.model.Player;
+import de.tuberlin.sese.swtpp.gameserver.model.User;
+import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.MoveGenerator;
+import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.StacksBoard;
+
+/**
+ * Startup time of the server with a synthetic database: finished games in the archive, some active games
+ * in the snapshot. Measures load (until the first request can be served), the first request
+ * (login, game data, user data, statistics) and the first access to the history of a user.
+ * Every mode has to run in a new JVM.
+ *
+ * Usage: StartupBenchmark create|lazy|eager [games] [directory]
+ */
+public final class StartupBenchmark {
+
+	private static final int ACTIVE_GAMES = 1000;
+	private static final int MAX_MOVES = 40;
+
+	private StartupBenchmark() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		String mode = args.length > 0 ? args[0] : "lazy";
+		int gameCount = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+		File dir = new File(args.length > 2 ? args[2] : System.getProperty("java.io.tmpdir"));
+		String path = new File(dir, "startup-benchmark.db").getPath();
+
+		if (mode.equals("create")) {
+			create(path, gameCount);
+			return;
+		}
+
+		long time = System.nanoTime();
+		Persistence persistence = new Persistence(path, mode.equals("lazy"));
+		persistence.load();
+		long load = System.nanoTime() - time;
+
+		// first request: user logs in and looks at a game
+		time = System.nanoTime();
+		UserController users = UserController.getInstance();
+		User u = users.findUserByID("user0");
+		users.checkUserPwd("user0", "pw");
+		for (Player p : u.getActiveParticipations()) p.getGame().getSnapshot();
+		int won = u.getStats().numWon;
+		long request = System.nanoTime() - time;
+
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		long heap = runtime.totalMemory() - runtime.freeMemory();
+
+		time = System.nanoTime();
+		int history = u.getHistory().size();
+		long first = System.nanoTime() - time;
+
+		System.out.println(mode + ": load " + load / 1000000 + " ms, first request " + request / 1000000
+				+ " ms (won " + won + "), heap " + heap / (1024 * 1024) + " MB, first history " + first / 1000000
+				+ " ms (" + history + " games)");
+
+		// old games are read when they are needed
+		time = System.nanoTime();
+		Game archived = GameController.getInstance().getGame(gameCount / 2);
+		System.out.println("archived game " + archived.getGameID() + ": " + archived.getStatus() + ", read in "
+				+ (System.nanoTime() - time) / 1000 + " us");
+		runtime.halt(0);
+	}
+
+	/*******************************
+	 * Database
+	 ******************************/
+
+	// finished random games written directly to the archive, active games in the snapshot
+	private static void create(String path, int gameCount) throws IOException {
+		for (String file : new String[] {path, path + ".archive", path + ".archive.index", path + ".journal.0"}) {
+			new File(file).delete();
+		}
+		Bot.pause();
+		SplittableRandom random = new SplittableRandom(42);
+		int userCount = Math.max(2, gameCount / 1000);
+		UserController users = UserController.getInstance();
+		Map<String, User> registered = new HashMap<String, User>();
+		for (int i = 0; i < userCount; i++) {
+			User u = new User("User " + i, "user" + i);
+			users.createSaltedHash("pw", u);
+			registered.put(u.getId(), u);
+		}
+		users.setUsers(registered);
+
+		long time = System.nanoTime();
+		GameArchive archive = new GameArchive(path + ".archive");
+		int[] buffer = new int[MoveGenerator.MAX_MOVES];
+		// statistics of the users: won, lost, draw, moves
+		long[][] statistics = new long[userCount][4];
+		for (int i = 0; i < gameCount; i++) {
+			// players are not the registered users: statistics are computed when the history is loaded
+			int red = random.nextInt(userCount);
+			int blue = (red + 1 + random.nextInt(userCount - 1)) % userCount;
+			Game g = GameFactory.createGame("deathstacks");
+			g.addPlayer(new Player(new User("User " + red, "user" + red), g));
+			g.addPlayer(new Player(new User("User " + blue, "user" + blue), g));
+			playRandom(g, buffer, random);
+
+			if (random.nextInt(4) == 0) {
+				g.callDraw(g.getPlayers().get(0));
+				g.callDraw(g.getPlayers().get(1));
+			} else {
+				g.giveUp(g.getNextPlayer());
+			}
+			for (Player p : g.getPlayers()) {
+				long[] s = statistics[Integer.parseInt(p.getUser().getId().substring(4))];
+				s[g.isDraw() ? 2 : p.isWinner() ? 0 : 1]++;
+				s[3] += g.getMoveCount();
+			}
+			archive.append(g);
+			if ((i + 1) % 100000 == 0) System.out.println((i + 1) + " games archived");
+		}
+		archive.close();
+		System.out.println("archive: " + new File(path + ".archive").length() / (1024 * 1024) + " MB in "
+				+ (System.nanoTime() - time) / 1000000 + " ms");
+		for (int i = 0; i < userCount; i++) {
+			long[] s = statistics[i];
+			users.findUserByID("user" + i).getStats().set((int) s[0], (int) s[1], (int) s[2], s[3]);
+		}
+
+		// active games of the registered users
+		GameController games = GameController.getInstance();
+		LinkedList<Game> active = new LinkedList<Game>();
+		for (int i = 0; i < ACTIVE_GAMES; i++) {
+			Game g = games.getGame(games.startGame(users.findUserByID("user" + (i % userCount)), "", "deathstacks"));
+			games.restoreJoin(users.findUserByID("user" + ((i + 1) % userCount)), g.getGameID());
+			playRandom(g, buffer, random);
+			active.add(g);
+		}
+		BinarySnapshot.write(new File(path), registered, active, Game.getLastID(), 0);
+	}
+
+	private static void playRandom(Game g, int[] buffer, SplittableRandom random) {
+		// new board per game: loadFEN adds every position to the repetition history of the board
+		StacksBoard board = new StacksBoard();
+		int moves = random.nextInt(MAX_MOVES + 1);
+		for (int m = 0; m < moves && !g.isFinished(); m++) {
+			board.loadFEN(g.getBoard());
+			int n = MoveGenerator.generate(board, g.nextPlayerString().charAt(0), buffer);
+			if (n == 0) break;
+			g.tryMove(MoveGenerator.toMoveString(buffer[random.nextInt(n)]), g.getNextPlayer());
+		}
+	}
+
+}
@@ -0,0 +1,51 @@
+package de.tuberlin.sese.swtpp.gameserver.persistence;
+
+import de.tuberlin.sese.swtpp.gameserver.control.UserController;
+import de.tuberlin.sese.swtpp.gameserver.model.Bot;
+import de.tuberlin.sese.swtpp.gameserver.model.Statistics;
+import de.tuberlin.sese.swtpp.gameserver.model.User;
+
+/**
+ * Counts the statistics of all users again from their history (archived and finished games)
+ * and saves them with a new snapshot. Statistics are only updated when a game is finished
+ * (see Statistics.addGame), this tool repairs counters that do not match the history.
+ * The server must not run on the same database.
+ *
+ * Usage: StatisticsRebuild [database]
+ */
+public final class StatisticsRebuild {
+
+	private StatisticsRebuild() {
+	}
+
+	public static void main(String[] args) {
+		String path = args.length > 0 ? args[0] : "test.db";
+
+		Persistence persistence = new Persistence(path);
+		persistence.load();
+		// games are not continued by bots of this tool
+		Bot.pause();
+
+		long time = System.currentTimeMillis();
+		int changed = 0;
+		for (User u : UserController.getInstance().getUsers().values()) {
+			Statistics s = u.getStats();
+			String before = counters(s);
+			u.rebuildStatistics();
+			String after = counters(s);
+			if (!before.equals(after)) {
+				System.out.println(u.getId() + ": " + before + " -> " + after);
+				changed++;
+			}
+		}
+		System.out.println(UserController.getInstance().getUsers().size() + " users, " + changed + " changed, "
+				+ (System.currentTimeMillis() - time) + " ms");
+
+		persistence.close();
+	}
+
+	private static String counters(Statistics s) {
+		return "won " + s.numWon + ", lost " + s.numLost + ", draw " + s.numDraw + ", moves " + s.numMoves;
+	}
+
+}
@@ -5,6 +5,6 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
-@SuiteClasses({ DeathStacksGameTest.class, TryMoveTest.class})
+@SuiteClasses({ DeathStacksGameTest.class, TryMoveTest.class, JoinGameTest.class, JournalTest.class, BinarySnapshotTest.class, GameArchiveTest.class, StatisticsTest.class, StacksBoardTest.class, MoveGeneratorTest.class, PerftTest.class, SearchTest.class})
 public class AllTests {
 }
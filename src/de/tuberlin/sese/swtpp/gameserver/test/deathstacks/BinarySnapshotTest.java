@@ -0,0 +1,316 @@
+package de.tuberlin.sese.swtpp.gameserver.test.deathstacks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tuberlin.sese.swtpp.gameserver.control.GameController;
+import de.tuberlin.sese.swtpp.gameserver.control.UserController;
+import de.tuberlin.sese.swtpp.gameserver.control.UserController;
+import de.tuberlin.sese.swtpp.gameserver.model.Bot;
+import de.tuberlin.sese.swtpp.gameserver.model.Game;
+import de.tuberlin.sese.swtpp.gameserver.model.Move;
+import de.tuberlin.sese.swtpp.gameserver.model.Player;
+import de.tuberlin.sese.swtpp.gameserver.model.User;
+import de.tuberlin.sese.swtpp.gameserver.persistence.BinarySnapshot;
+import de.tuberlin.sese.swtpp.gameserver.persistence.Persistence;
+
+public class BinarySnapshotTest {
+
+	User alice = new User("Alice", "alice");
+	User bob = new User("Bob", "bob");
+	User carol = new User("Carol Ünicode", "carol");
+
+	GameController controller;
+	Map<String, User> users;
+	File file;
+
+	String gameType = "deathstacks";
+
+	@Before
+	public void setUp() throws Exception {
+		Bot.pause();
+		controller = GameController.getInstance();
+		controller.clear();
+		file = File.createTempFile("snapshot", ".db");
+
+		alice.setPwdhash("hash-a");
+		alice.setSalt(new byte[] {1, 2, 3});
+		bob.setPwdhash("hash-b");
+		carol.setPwdhash("hash-c");
+		alice.getStats().set(7, 3, 2, 412);
+		users = new HashMap<String, User>();
+		for (User u : new User[] {alice, bob, carol}) users.put(u.getId(), u);
+	}
+
+	@After
+	public void tearDown() {
+		Bot.resume();
+		controller.clear();
+		file.delete();
+	}
+
+	private void createGames() {
+		// started
+		int started = controller.startGame(alice, "", gameType);
+		controller.joinGame(bob, gameType);
+		controller.tryMove(alice, started, "a6-1-a5");
+		controller.tryMove(bob, started, "a1-1-a2");
+		controller.callDraw(alice, started);
+		// finished: given up
+		int givenUp = controller.startGame(bob, "", gameType);
+		controller.joinGame(carol, gameType);
+		controller.tryMove(bob, givenUp, "c6-2-c4");
+		controller.giveUp(carol, givenUp);
+		// finished: draw
+		int draw = controller.startGame(carol, "", gameType);
+		controller.joinGame(alice, gameType);
+		controller.callDraw(carol, draw);
+		controller.callDraw(alice, draw);
+		// waiting for a player
+		controller.startGame(alice, "", gameType);
+	}
+
+	// state of users and games as text
+	private String state(Map<String, User> users, List<Game> games, int lastID) {
+		StringBuilder text = new StringBuilder();
+		text.append("lastID ").append(lastID).append('\n');
+		for (User u : new TreeMap<String, User>(users).values()) {
+			text.append(u.getId()).append(' ').append(u.getName()).append(' ').append(u.getPwdhash())
+				.append(' ').append(u.getSalt() == null ? "-" : Arrays.toString(u.getSalt()))
+				.append(" won ").append(u.getStats().numWon).append(" lost ").append(u.getStats().numLost)
+				.append(" draw ").append(u.getStats().numDraw).append(" moves ").append(u.getStats().numMoves)
+				.append(" active ").append(u.getActiveParticipations().size()).append('\n');
+		}
+		for (Game g : games) {
+			text.append(g.getGameID()).append(' ').append(g.getType()).append(' ').append(g.getBoard())
+				.append(' ').append(g.getStatus()).append(' ').append(g.gameInfo())
+				.append(" started ").append(g.isStarted()).append(" finished ").append(g.isFinished())
+				.append(" draw ").append(g.isDraw()).append(" surrendered ").append(g.isSurrendered())
+				.append(" moves ").append(g.getMoveCount()).append(" next ")
+				.append(g.getNextPlayer() == null ? "-" : g.getNextPlayer().getUser().getId());
+			for (Move m : g.getHistory()) text.append(' ').append(m.getMove());
+			for (Player p : g.getPlayers()) {
+				text.append(' ').append(p.getUser().getId()).append(p.isWinner() ? "+" : "")
+					.append(p.requestedDraw() ? "=" : "").append(p.surrendered() ? "!" : "");
+			}
+			text.append('\n');
+		}
+		return text.toString();
+	}
+
+	// users of the snapshot without the games (participations are added again when it is read)
+	private Map<String, User> copy(Map<String, User> users) {
+		Map<String, User> copy = new HashMap<String, User>();
+		for (User u : users.values()) {
+			User c = new User(u.getName(), u.getId());
+			c.setPwdhash(u.getPwdhash());
+			c.setSalt(u.getSalt());
+			c.getStats().set(u.getStats().numWon, u.getStats().numLost, u.getStats().numDraw, u.getStats().numMoves);
+			copy.put(c.getId(), c);
+		}
+		return copy;
+	}
+
+	@Test
+	public void usersAndGamesAreSameAfterReading() throws IOException {
+		createGames();
+		LinkedList<Game> games = controller.getGames();
+		Map<String, User> before = copy(users);
+		String expected = state(users, games, Game.getLastID());
+		BinarySnapshot.write(file, before, games, Game.getLastID(), 17);
+		Game.setLastID(0);
+
+		BinarySnapshot snapshot = BinarySnapshot.read(file);
+		assertEquals(true, BinarySnapshot.isBinary(file));
+		assertEquals(17, snapshot.generation);
+		assertEquals(true, snapshot.statistics);
+		assertEquals(expected, state(snapshot.users, snapshot.games, snapshot.lastID));
+	}
+
+	@Test
+	public void moveThatIsNotPackedIsSkipped() throws IOException {
+		// history with a move that is not a DeathStacks move: written as string, game gets the saved board
+		int odd = controller.startGame(alice, "", gameType);
+		controller.joinGame(bob, gameType);
+		Game g = controller.getGame(odd);
+		List<Move> history = new ArrayList<Move>();
+		history.add(new Move("resign", g.getBoard(), g.getPlayers().get(0)));
+		g.setHistory(history);
+		g.setBoard(",rr,rr,rr,rr,rr/rr,,,,,/,,,,,/,,,,,/,,,,,/bb,bb,bb,bb,bb,bb");
+		int after = controller.startGame(carol, "", gameType);
+		controller.joinGame(bob, gameType);
+		controller.tryMove(carol, after, "f6-2-f4");
+
+		BinarySnapshot.write(file, copy(users), controller.getGames(), Game.getLastID(), 0);
+		BinarySnapshot snapshot = BinarySnapshot.read(file);
+
+		assertEquals(2, snapshot.games.size());
+		assertEquals(",rr,rr,rr,rr,rr/rr,,,,,/,,,,,/,,,,,/,,,,,/bb,bb,bb,bb,bb,bb", snapshot.games.get(0).getBoard());
+		// data after the move string is read
+		Game read = snapshot.games.get(1);
+		assertEquals(after, read.getGameID());
+		assertEquals(controller.getGame(after).getBoard(), read.getBoard());
+		assertEquals(1, read.getMoveCount());
+		assertEquals("f6-2-f4", read.getHistory().get(0).getMove());
+	}
+
+	@Test
+	public void versionOneIsReadWithoutStatistics() throws IOException {
+		createGames();
+		int lastID = Game.getLastID();
+		// games are written the same way in both versions
+		BinarySnapshot.write(file, new HashMap<String, User>(), controller.getGames(), lastID, 5);
+		byte[] v2 = Files.readAllBytes(file.toPath());
+		int gamesStart = 4 + varint(2).length + varint(lastID).length + varint(5).length + varint(0).length;
+
+		ByteArrayOutputStream v1 = new ByteArrayOutputStream();
+		v1.write(v2, 0, 4);
+		v1.write(varint(1));
+		v1.write(varint(lastID));
+		v1.write(varint(5));
+		v1.write(varint(2));
+		writeUserVersion1(v1, "alice", "Alice", "hash-a", new byte[] {1, 2, 3});
+		writeUserVersion1(v1, "bob", "Bob", "hash-b", new byte[0]);
+		v1.write(v2, gamesStart, v2.length - gamesStart);
+		Files.write(file.toPath(), v1.toByteArray());
+
+		BinarySnapshot snapshot = BinarySnapshot.read(file);
+		assertEquals(false, snapshot.statistics);
+		assertEquals(5, snapshot.generation);
+		assertEquals(lastID, snapshot.lastID);
+		assertEquals(4, snapshot.games.size());
+		User a = snapshot.users.get("alice");
+		assertEquals("Alice", a.getName());
+		assertEquals("hash-a", a.getPwdhash());
+		assertEquals(3, a.getSalt().length);
+		assertEquals(null, snapshot.users.get("bob").getSalt());
+		// player of a game that is not a user of the snapshot
+		assertEquals(true, snapshot.users.containsKey("carol"));
+		for (int i = 0; i < snapshot.games.size(); i++) {
+			assertEquals(controller.getGames().get(i).getBoard(), snapshot.games.get(i).getBoard());
+			assertEquals(controller.getGames().get(i).getStatus(), snapshot.games.get(i).getStatus());
+		}
+	}
+
+	/*******************************
+	 * Java-serialized database
+	 ******************************/
+
+	// test.db of the server before BinarySnapshot and packed boards: alice and bob (password secret),
+	// game 0 started with two moves and draw called by alice, game 1 given up by alice, game 2 waiting
+	private File baselineDatabase() throws IOException {
+		File dir = Files.createTempDirectory("baseline").toFile();
+		File db = new File(dir, "db");
+		try (InputStream in = getClass().getResourceAsStream("baseline.db")) {
+			Files.copy(in, db.toPath());
+		}
+		UserController.getInstance().setUsers(new HashMap<String, User>());
+		Game.setLastID(0);
+		return db;
+	}
+
+	private void delete(File db) {
+		for (File f : db.getParentFile().listFiles()) f.delete();
+		db.getParentFile().delete();
+		UserController.getInstance().setUsers(new HashMap<String, User>());
+	}
+
+	@Test
+	public void serializedDatabaseIsLoaded() throws IOException {
+		File db = baselineDatabase();
+		UserController users = UserController.getInstance();
+		Persistence persistence = new Persistence(db.getPath(), true, true);
+		persistence.load();
+
+		User a = users.findUserByID("alice");
+		User b = users.findUserByID("bob");
+		assertEquals("Alice", a.getName());
+		assertEquals(true, users.checkUserPwd("bob", "secret"));
+		assertEquals(3, Game.getLastID());
+		Game started = controller.getGame(0);
+		assertEquals("r,rr,rr,rr,rr,rr/r,,,,,/,,,,,/,,,,,/b,,,,,/b,bb,bb,bb,bb,bb", started.getBoard());
+		assertEquals("red called draw", started.gameInfo());
+		assertEquals(2, started.getMoveCount());
+		assertEquals(true, started.isPlayer(a));
+		assertEquals(true, controller.getGame(1).isFinished());
+		assertEquals("Wait", controller.getGame(2).getStatus());
+		// statistics are counted from the history
+		assertEquals(1, b.getStats().numWon);
+		assertEquals(1, a.getStats().numLost);
+
+		// games go on, database is written as binary snapshot
+		assertEquals(true, controller.tryMove(a, 0, "b6-1-b5"));
+		assertEquals(2, controller.joinGame(b, gameType));
+		String board = started.getBoard();
+		persistence.close();
+		assertEquals(true, BinarySnapshot.isBinary(db));
+
+		controller.clear();
+		users.setUsers(new HashMap<String, User>());
+		persistence = new Persistence(db.getPath(), true, true);
+		persistence.load();
+		assertEquals(board, controller.getGame(0).getBoard());
+		assertEquals(true, controller.getGame(2).isStarted());
+		assertEquals(1, users.findUserByID("alice").getStats().numLost);
+		persistence.close();
+		delete(db);
+	}
+
+	@Test
+	public void unreadableDatabaseIsNotOverwritten() throws IOException {
+		File db = baselineDatabase();
+		byte[] cut = Arrays.copyOf(Files.readAllBytes(db.toPath()), 3000);
+		Files.write(db.toPath(), cut);
+
+		Persistence persistence = new Persistence(db.getPath(), true, true);
+		try {
+			persistence.load();
+			fail("database is loaded");
+		} catch (UncheckedIOException e) {
+			// server is not started
+		}
+		assertEquals(0, UserController.getInstance().getUsers().size());
+		persistence.compact();
+		persistence.close();
+		assertEquals(true, Arrays.equals(cut, Files.readAllBytes(db.toPath())));
+		delete(db);
+	}
+
+	private void writeUserVersion1(ByteArrayOutputStream out, String id, String name, String hash, byte[] salt) throws IOException {
+		for (String s : new String[] {id, name, hash}) {
+			byte[] data = s.getBytes("UTF-8");
+			out.write(varint(data.length));
+			out.write(data);
+		}
+		out.write(varint(salt.length));
+		out.write(salt);
+	}
+
+	private static byte[] varint(long value) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+		return out.toByteArray();
+	}
+}
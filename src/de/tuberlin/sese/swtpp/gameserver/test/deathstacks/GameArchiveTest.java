@@ -0,0 +1,205 @@
+package de.tuberlin.sese.swtpp.gameserver.test.deathstacks;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tuberlin.sese.swtpp.gameserver.control.GameController;
+import de.tuberlin.sese.swtpp.gameserver.model.Game;
+import de.tuberlin.sese.swtpp.gameserver.model.User;
+import de.tuberlin.sese.swtpp.gameserver.persistence.GameArchive;
+
+public class GameArchiveTest {
+
+	User alice = new User("Alice", "alice");
+	User bob = new User("Bob", "bob");
+
+	GameController controller;
+	Map<String, User> users = new HashMap<String, User>();
+	File dir;
+	String path;
+
+	String gameType = "deathstacks";
+
+	@Before
+	public void setUp() throws Exception {
+		controller = GameController.getInstance();
+		controller.clear();
+		users.put(alice.getId(), alice);
+		users.put(bob.getId(), bob);
+		dir = Files.createTempDirectory("archive").toFile();
+		path = new File(dir, "db.archive").getPath();
+	}
+
+	@After
+	public void tearDown() {
+		controller.clear();
+		for (File f : dir.listFiles()) f.delete();
+		dir.delete();
+	}
+
+	// finished games: moves, then one player gives up
+	private List<Game> finishedGames(int count) {
+		List<Game> games = new ArrayList<Game>();
+		for (int i = 0; i < count; i++) {
+			int id = controller.startGame(alice, "", gameType);
+			controller.joinGame(bob, gameType);
+			controller.tryMove(alice, id, "a6-1-a5");
+			if (i % 2 == 0) controller.tryMove(bob, id, "f1-1-f2");
+			controller.giveUp(i % 3 == 0 ? alice : bob, id);
+			games.add(controller.getGame(id));
+		}
+		return games;
+	}
+
+	private void assertArchived(GameArchive archive, Game expected) throws IOException {
+		Game read = archive.read(expected.getGameID(), users::get);
+		assertEquals(expected.getGameID(), read.getGameID());
+		assertEquals(expected.getBoard(), read.getBoard());
+		assertEquals(expected.getStatus(), read.getStatus());
+		assertEquals(expected.getMoveCount(), read.getMoveCount());
+		assertEquals(expected.isFinished(), read.isFinished());
+		assertEquals(expected.getPlayer(alice).isWinner(), read.getPlayer(alice).isWinner());
+	}
+
+	private void cut(String file, int bytes) throws IOException {
+		try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+			out.setLength(out.length() - bytes);
+		}
+	}
+
+	@Test
+	public void gamesAreReadByID() throws IOException {
+		List<Game> games = finishedGames(5);
+		GameArchive archive = new GameArchive(path);
+		for (Game g : games) assertEquals(true, archive.append(g));
+		// appended once only
+		assertEquals(false, archive.append(games.get(0)));
+
+		assertEquals(5, archive.getCount());
+		assertEquals(games.get(4).getGameID(), archive.getLastID());
+		for (Game g : games) assertArchived(archive, g);
+		assertEquals(null, archive.read(games.get(4).getGameID() + 1, users::get));
+		archive.close();
+	}
+
+	@Test
+	public void playersAreRegisteredUsers() throws IOException {
+		Game game = finishedGames(1).get(0);
+		GameArchive archive = new GameArchive(path);
+		archive.append(game);
+		int history = alice.getHistory().size();
+		int won = alice.getStats().numWon;
+		int lost = alice.getStats().numLost;
+
+		Game read = archive.read(game.getGameID(), users::get);
+		assertEquals(alice, read.getPlayers().get(0).getUser());
+		assertEquals(bob, read.getPlayers().get(1).getUser());
+		assertEquals(true, read.isPlayer(alice));
+		// users are not changed by reading
+		assertEquals(history, alice.getHistory().size());
+		assertEquals(won, alice.getStats().numWon);
+		assertEquals(lost, alice.getStats().numLost);
+
+		// user that is not registered anymore
+		read = archive.read(game.getGameID(), id -> null);
+		assertEquals("alice", read.getPlayers().get(0).getUser().getId());
+		assertEquals("Alice", read.getPlayers().get(0).getName());
+		archive.close();
+	}
+
+	@Test
+	public void reopenUsesIndexHeader() throws IOException {
+		List<Game> games = finishedGames(3);
+		GameArchive archive = new GameArchive(path);
+		for (Game g : games) archive.append(g);
+		archive.close();
+
+		// checksum of first record is wrong: records in the index are not checked again
+		try (RandomAccessFile out = new RandomAccessFile(path, "rw")) {
+			out.seek(4);
+			out.writeInt(0);
+		}
+		archive = new GameArchive(path);
+		assertEquals(3, archive.getCount());
+		assertEquals(games.get(2).getGameID(), archive.getLastID());
+		for (Game g : games) assertArchived(archive, g);
+		archive.close();
+	}
+
+	@Test
+	public void tornLastRecordIsCutOff() throws IOException {
+		List<Game> games = finishedGames(2);
+		GameArchive archive = new GameArchive(path);
+		archive.append(games.get(0));
+		long first = new File(path).length();
+		archive.append(games.get(1));
+		archive.close();
+		cut(path, 3);
+
+		// index header does not belong to the shorter archive: records are checked
+		archive = new GameArchive(path);
+		assertEquals(first, new File(path).length());
+		assertEquals(1, archive.getCount());
+		assertArchived(archive, games.get(0));
+		assertEquals(null, archive.read(games.get(1).getGameID(), users::get));
+		assertEquals(false, archive.contains(games.get(1).getGameID()));
+		// appended again after the crash
+		assertEquals(true, archive.append(games.get(1)));
+		assertArchived(archive, games.get(1));
+		archive.close();
+	}
+
+	@Test
+	public void staleIndexEntryIsRejected() throws IOException {
+		List<Game> games = finishedGames(3);
+		GameArchive archive = new GameArchive(path);
+		archive.append(games.get(0));
+		archive.force();
+		archive.append(games.get(1));
+		// crash: record of second game is torn, its index entry is written already
+		cut(path, 5);
+
+		GameArchive reopened = new GameArchive(path);
+		assertEquals(1, reopened.getCount());
+		assertEquals(false, reopened.contains(games.get(1).getGameID()));
+		// next record is where the torn one was: entry of the torn one points to it
+		reopened.append(games.get(2));
+		assertEquals(null, reopened.read(games.get(1).getGameID(), users::get));
+		assertArchived(reopened, games.get(0));
+		assertArchived(reopened, games.get(2));
+		reopened.close();
+	}
+
+	@Test
+	public void recordsAreReadFromSegments() throws IOException {
+		// segments smaller than a record: records start in one segment and end in another
+		List<Game> games = finishedGames(20);
+		GameArchive archive = new GameArchive(path, 64);
+		for (int i = 0; i < 10; i++) archive.append(games.get(i));
+		for (Game g : games.subList(0, 10)) assertArchived(archive, g);
+		for (int i = 10; i < 20; i++) archive.append(games.get(i));
+		for (Game g : games) assertArchived(archive, g);
+		archive.close();
+
+		// segment size is not part of the files
+		archive = new GameArchive(path, 100);
+		assertEquals(20, archive.getCount());
+		for (Game g : games) assertArchived(archive, g);
+		archive.close();
+		archive = new GameArchive(path);
+		for (Game g : games) assertArchived(archive, g);
+		archive.close();
+	}
+}
@@ -0,0 +1,104 @@
+package de.tuberlin.sese.swtpp.gameserver.test.deathstacks;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tuberlin.sese.swtpp.gameserver.control.GameController;
+import de.tuberlin.sese.swtpp.gameserver.model.Game;
+import de.tuberlin.sese.swtpp.gameserver.model.User;
+
+public class JoinGameTest {
+
+	User user1 = new User("Alice", "alice");
+	User user2 = new User("Bob", "bob");
+	User user3 = new User("Carol", "carol");
+
+	GameController controller;
+
+	String gameType ="deathstacks";
+
+	@Before
+	public void setUp() throws Exception {
+		controller = GameController.getInstance();
+		controller.clear();
+	}
+
+	// users join at the same time, result of each user
+	private int[] joinAtOnce(User... users) throws InterruptedException {
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicIntegerArray joined = new AtomicIntegerArray(users.length);
+		Thread[] threads = new Thread[users.length];
+		for (int i = 0; i < users.length; i++) {
+			int index = i;
+			threads[i] = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				joined.set(index, controller.joinGame(users[index], gameType));
+			});
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) thread.join();
+
+		int[] result = new int[users.length];
+		for (int i = 0; i < users.length; i++) result[i] = joined.get(i);
+		return result;
+	}
+
+	@Test
+	public void concurrentJoinsGetOnePlace() throws InterruptedException {
+		for (int round = 0; round < 50; round++) {
+			controller.clear();
+			int gameID = controller.startGame(user1, "", gameType);
+
+			int[] joined = joinAtOnce(user2, user3);
+
+			// one of them got the game, the other found no waiting game
+			assertEquals(true, (joined[0] == gameID && joined[1] == -1) || (joined[0] == -1 && joined[1] == gameID));
+			Game game = controller.getGame(gameID);
+			assertEquals(2, game.getPlayers().size());
+			assertEquals(true, game.isStarted());
+			assertEquals(true, game.isPlayer(user1));
+			assertEquals(true, game.isPlayer(joined[0] == gameID ? user2 : user3));
+			assertEquals(false, game.isPlayer(joined[0] == gameID ? user3 : user2));
+		}
+	}
+
+	@Test
+	public void concurrentJoinsNeverGetOwnGame() throws InterruptedException {
+		for (int round = 0; round < 50; round++) {
+			controller.clear();
+			int gameOfAlice = controller.startGame(user1, "", gameType);
+			int gameOfBob = controller.startGame(user2, "", gameType);
+
+			int[] joined = joinAtOnce(user1, user2);
+
+			// both games are waiting: each user gets the game of the other one
+			assertEquals(gameOfBob, joined[0]);
+			assertEquals(gameOfAlice, joined[1]);
+			assertEquals(2, controller.getGame(gameOfAlice).getPlayers().size());
+			assertEquals(2, controller.getGame(gameOfBob).getPlayers().size());
+		}
+	}
+
+	@Test
+	public void userDoesNotJoinOwnGame() {
+		int gameID = controller.startGame(user1, "", gameType);
+
+		assertEquals(-1, controller.joinGame(user1, gameType));
+
+		Game game = controller.getGame(gameID);
+		assertEquals(1, game.getPlayers().size());
+		assertEquals(false, game.isStarted());
+		// still waiting for another user
+		assertEquals(gameID, controller.joinGame(user2, gameType));
+	}
+}
@@ -0,0 +1,238 @@
+package de.tuberlin.sese.swtpp.gameserver.test.deathstacks;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tuberlin.sese.swtpp.gameserver.control.GameController;
+import de.tuberlin.sese.swtpp.gameserver.control.UserController;
+import de.tuberlin.sese.swtpp.gameserver.model.Game;
+import de.tuberlin.sese.swtpp.gameserver.model.Player;
+import de.tuberlin.sese.swtpp.gameserver.model.User;
+import de.tuberlin.sese.swtpp.gameserver.persistence.Journal;
+import de.tuberlin.sese.swtpp.gameserver.persistence.Persistence;
+
+public class JournalTest {
+
+	File dir;
+	String path;
+
+	GameController games;
+	UserController users;
+
+	String gameType = "deathstacks";
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("journal").toFile();
+		path = new File(dir, "db").getPath();
+		games = GameController.getInstance();
+		users = UserController.getInstance();
+		reset();
+	}
+
+	@After
+	public void tearDown() {
+		reset();
+		for (File f : dir.listFiles()) f.delete();
+		dir.delete();
+	}
+
+	// empty server (Persistence.load does not clear what is not in the files)
+	private void reset() {
+		games.clear();
+		users.setUsers(new HashMap<String, User>());
+		Game.setLastID(0);
+	}
+
+	private List<Journal.Record> replay(File file) throws IOException {
+		List<Journal.Record> records = new ArrayList<Journal.Record>();
+		Journal.replay(file, records::add);
+		return records;
+	}
+
+	private void assertRecord(Journal.Record record, byte type, int gameID, int player, String... args) {
+		assertEquals(type, record.type);
+		assertEquals(gameID, record.gameID);
+		assertEquals(player, record.player);
+		assertEquals(args.length, record.args.length);
+		for (int i = 0; i < args.length; i++) assertEquals(args[i], record.args[i]);
+	}
+
+	/*******************************
+	 * Records
+	 ******************************/
+
+	@Test
+	public void allRecordTypesAreReplayed() throws IOException {
+		Journal journal = new Journal(path, 0, true);
+		journal.append(Journal.REGISTER, 0, -1, "alice", "Alice", "hash", "salt");
+		journal.append(Journal.START, 1, -1, "alice", "", gameType);
+		journal.append(Journal.JOIN, 1, -1, "bob");
+		journal.append(Journal.MOVE, 1, 0, "a6-1-a5");
+		journal.append(Journal.DRAW, 1, 1);
+		long last = journal.append(Journal.GIVEUP, 1, 0);
+		journal.commit(last);
+		assertEquals(6, journal.getRecords());
+		journal.close();
+
+		List<Journal.Record> records = replay(Journal.file(path, 0));
+		assertEquals(6, records.size());
+		assertRecord(records.get(0), Journal.REGISTER, 0, -1, "alice", "Alice", "hash", "salt");
+		assertRecord(records.get(1), Journal.START, 1, -1, "alice", "", gameType);
+		assertRecord(records.get(2), Journal.JOIN, 1, -1, "bob");
+		assertRecord(records.get(3), Journal.MOVE, 1, 0, "a6-1-a5");
+		assertRecord(records.get(4), Journal.DRAW, 1, 1);
+		assertRecord(records.get(5), Journal.GIVEUP, 1, 0);
+	}
+
+	@Test
+	public void recordsAreAppendedAfterReopen() throws IOException {
+		Journal journal = new Journal(path, 3, true);
+		journal.commit(journal.append(Journal.MOVE, 1, 0, "a6-1-a5"));
+		journal.close();
+
+		journal = new Journal(path, 3, true);
+		journal.commit(journal.append(Journal.MOVE, 1, 1, "a1-1-a2"));
+		journal.close();
+
+		List<Journal.Record> records = replay(Journal.file(path, 3));
+		assertEquals(2, records.size());
+		assertRecord(records.get(0), Journal.MOVE, 1, 0, "a6-1-a5");
+		assertRecord(records.get(1), Journal.MOVE, 1, 1, "a1-1-a2");
+	}
+
+	@Test
+	public void tornTailIsCutOff() throws IOException {
+		Journal journal = new Journal(path, 0, true);
+		journal.append(Journal.START, 1, -1, "alice", "", gameType);
+		journal.commit(journal.append(Journal.JOIN, 1, -1, "bob"));
+		journal.close();
+		File file = Journal.file(path, 0);
+		long valid = file.length();
+
+		// crash while a record was written: length and checksum, half of the payload
+		try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+			out.seek(valid);
+			out.writeInt(100);
+			out.writeInt(42);
+			out.write(new byte[50]);
+		}
+		assertEquals(valid, Journal.replay(file, record -> {}));
+		assertEquals(2, replay(file).size());
+
+		// tail is cut off when the journal is opened, next record follows the complete ones
+		journal = new Journal(path, 0, true);
+		assertEquals(valid, file.length());
+		journal.commit(journal.append(Journal.MOVE, 1, 0, "a6-1-a5"));
+		journal.close();
+
+		List<Journal.Record> records = replay(file);
+		assertEquals(3, records.size());
+		assertRecord(records.get(2), Journal.MOVE, 1, 0, "a6-1-a5");
+	}
+
+	@Test
+	public void recordWithWrongChecksumIsCutOff() throws IOException {
+		Journal journal = new Journal(path, 0, true);
+		journal.commit(journal.append(Journal.JOIN, 1, -1, "bob"));
+		journal.close();
+		File file = Journal.file(path, 0);
+		long valid = file.length();
+
+		journal = new Journal(path, 0, true);
+		journal.commit(journal.append(Journal.MOVE, 1, 0, "a6-1-a5"));
+		journal.close();
+		// last byte of the move is changed
+		try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+			out.seek(file.length() - 1);
+			out.write('x');
+		}
+
+		assertEquals(valid, Journal.replay(file, record -> {}));
+		List<Journal.Record> records = replay(file);
+		assertEquals(1, records.size());
+		assertRecord(records.get(0), Journal.JOIN, 1, -1, "bob");
+	}
+
+	/*******************************
+	 * Compaction
+	 ******************************/
+
+	@Test
+	public void stateIsSameAfterCompactAndReopen() {
+		Persistence persistence = new Persistence(path, true, true);
+		persistence.load();
+
+		User alice = users.register("alice", "Alice", "secret");
+		User bob = users.register("bob", "Bob", "secret");
+		int won = games.startGame(alice, "", gameType);
+		games.joinGame(bob, gameType);
+		games.tryMove(alice, won, "a6-1-a5");
+		games.tryMove(bob, won, "a1-1-a2");
+		games.giveUp(bob, won);
+		int drawn = games.startGame(bob, "", gameType);
+		games.joinGame(alice, gameType);
+		games.callDraw(alice, drawn);
+		games.callDraw(bob, drawn);
+
+		persistence.compact();
+
+		// changes after the snapshot are in the journal
+		int active = games.startGame(alice, "", gameType);
+		games.joinGame(bob, gameType);
+		games.tryMove(alice, active, "b6-1-b5");
+		games.callDraw(bob, active);
+		int waiting = games.startGame(bob, "", gameType);
+		users.register("carol", "Carol", "secret");
+
+		String before = state(won, drawn, active, waiting);
+
+		persistence.compact();
+		persistence.close();
+		reset();
+
+		persistence = new Persistence(path, true, true);
+		persistence.load();
+		assertEquals(before, state(won, drawn, active, waiting));
+		persistence.close();
+	}
+
+	// users, games and next game ID as text
+	private String state(int... gameIDs) {
+		StringBuilder text = new StringBuilder();
+		text.append("lastID ").append(Game.getLastID()).append('\n');
+		for (User u : new TreeMap<String, User>(users.getUsers()).values()) {
+			text.append(u.getId()).append(' ').append(u.getName()).append(' ').append(u.getPwdhash())
+				.append(" won ").append(u.getStats().numWon).append(" lost ").append(u.getStats().numLost)
+				.append(" draw ").append(u.getStats().numDraw).append(" moves ").append(u.getStats().numMoves)
+				.append(" active ").append(u.getActiveParticipations().size())
+				.append(" history ").append(u.getHistory().size()).append('\n');
+		}
+		Map<Integer, Game> found = new TreeMap<Integer, Game>();
+		for (int id : gameIDs) found.put(id, games.getGame(id));
+		for (Game g : found.values()) {
+			text.append(g.getGameID()).append(' ').append(g.getType()).append(' ').append(g.getBoard())
+				.append(' ').append(g.getStatus()).append(" started ").append(g.isStarted())
+				.append(" finished ").append(g.isFinished()).append(" draw ").append(g.isDraw())
+				.append(" moves ").append(g.getMoveCount());
+			for (Player p : g.getPlayers()) {
+				text.append(' ').append(p.getUser().getId()).append(p.isWinner() ? "+" : "").append(p.requestedDraw() ? "=" : "");
+			}
+			text.append('\n');
+		}
+		return text.toString();
+	}
+}
@@ -0,0 +1,124 @@
+package de.tuberlin.sese.swtpp.gameserver.test.deathstacks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.MoveGenerator;
+import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.Rules;
+import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.StacksBoard;
+
+public class MoveGeneratorTest {
+
+	String[] positions = {
+			"rr,rr,rr,rr,rr,rr/,,,,,/,,,,,/,,,,,/,,,,,/bb,bb,bb,bb,bb,bb",
+			",,,,,/rrrrr,,,,,/,,,,,/,,,,,/,,,,,/bbb,,,,,",
+			",rr,,rrr,,/,,,,,/,,,,,/,,,,,/,,,,rrrrrrr,/bb,bb,bb,bb,bb,bb",
+			"rr,,,,,/,,,,,/,,,,,/,rrrrrrrrrr,,,,/,,,,,/bb,bb,bb,bb,bb,bb",
+			"rrrrrrr,rr,rr,r,,/,,,,,/,,,,,/,,,,,/,,,,,/bb,bb,bb,bb,bb,bb",
+			",rrrrrrrr,,,rrrrrrr,rr/,,,,,/,,,,,/,,,,,/,,,,,/bb,bb,bb,bb,bb,bb",
+			"brbrb,,rbbbbbr,,,/,,,,,/,,,,,/,,,,,/,,,,,/bb,rbr,,,,rrrrrbbbb"
+	};
+	
+	/**
+	 * Reference: all checks of Rules on the move string, without MoveGenerator
+	 */
+	boolean legalByRules(Rules rules, String moveString) {
+		return rules.moveStringFormatIsCorrect(moveString) 
+				&& !rules.forcedMoveExists(moveString)
+				&& rules.piecesBelongToPlayer(moveString)
+				&& rules.moveIsValid(moveString);
+	}
+	
+	void assertSameMovesAsRules(StacksBoard board, char colour) {
+		Rules rules = new Rules(board);
+		rules.playerColour = colour;
+		
+		int[] buffer = new int[MoveGenerator.MAX_MOVES];
+		int n = MoveGenerator.generate(board, colour, buffer);
+		Set<String> generated = new HashSet<String>();
+		for (int i = 0; i < n; i++) {
+			assertTrue(generated.add(MoveGenerator.toMoveString(buffer[i])));
+			assertTrue(MoveGenerator.isLegal(board, colour, buffer[i]));
+		}
+		
+		for (int start = 0; start < StacksBoard.SQUARES; start++) {
+			if (board.top(start) == ' ') {
+				continue;
+			}
+			for (int count = 1; count <= board.height(start) + 1; count++) {
+				for (int end = 0; end < StacksBoard.SQUARES; end++) {
+					String moveString = MoveGenerator.toMoveString(MoveGenerator.move(start, count, end));
+					assertEquals(moveString, legalByRules(rules, moveString), generated.contains(moveString));
+					assertEquals(moveString, generated.contains(moveString), rules.rules_preconditionsSatisfied(moveString));
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void sameMovesAsRules() {
+		StacksBoard board = new StacksBoard();
+		for (String fen : positions) {
+			board.loadFEN(fen);
+			assertSameMovesAsRules(board, 'r');
+			assertSameMovesAsRules(board, 'b');
+		}
+	}
+	
+	@Test
+	public void sameMovesAsRulesInRandomGames() {
+		Random random = new Random(42);
+		StacksBoard board = new StacksBoard();
+		int[] buffer = new int[MoveGenerator.MAX_MOVES];
+		
+		for (int game = 0; game < 20; game++) {
+			board.loadFEN(positions[0]);
+			char colour = 'r';
+			for (int ply = 0; ply < 60; ply++) {
+				assertSameMovesAsRules(board, colour);
+				int n = MoveGenerator.generate(board, colour, buffer);
+				if (n == 0) {
+					break;
+				}
+				int move = buffer[random.nextInt(n)];
+				board.makeMove(MoveGenerator.start(move), MoveGenerator.count(move), MoveGenerator.end(move));
+				colour = colour == 'r' ? 'b' : 'r';
+			}
+		}
+	}
+	
+	@Test
+	public void startPosition() {
+		StacksBoard board = new StacksBoard();
+		board.loadFEN(positions[0]);
+		int[] buffer = new int[MoveGenerator.MAX_MOVES];
+		
+		int n = MoveGenerator.generate(board, 'r', buffer);
+		Set<String> moves = new HashSet<String>();
+		for (int i = 0; i < n; i++) {
+			moves.add(MoveGenerator.toMoveString(buffer[i]));
+		}
+		assertTrue(moves.contains("a6-1-a5"));
+		assertTrue(moves.contains("c6-2-e4"));
+		assertFalse(moves.contains("a1-1-a2"));
+	}
+	
+	@Test
+	public void parse() {
+		assertEquals(MoveGenerator.move(StacksBoard.square(4, 2), 3, StacksBoard.square(5, 3)), MoveGenerator.parse("d2-3-e3"));
+		assertEquals("d2-3-e3", MoveGenerator.toMoveString(MoveGenerator.parse("d2-3-e3")));
+		assertEquals(-1, MoveGenerator.parse(""));
+		assertEquals(-1, MoveGenerator.parse("a1--a2"));
+		assertEquals(-1, MoveGenerator.parse("a1-0-a2"));
+		assertEquals(-1, MoveGenerator.parse("a1-x-a2"));
+		assertEquals(-1, MoveGenerator.parse("a1-1-g267"));
+		assertEquals(-1, MoveGenerator.parse("k8-2-j9"));
+	}
+}
@@ -0,0 +1,55 @@
+package de.tuberlin.sese.swtpp.gameserver.test.deathstacks;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.Perft;
+import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.StacksBoard;
+
+public class PerftTest {
+
+	StacksBoard load(String fen) {
+		StacksBoard board = new StacksBoard();
+		board.loadFEN(fen);
+		return board;
+	}
+	
+	@Test
+	public void startPosition() {
+		StacksBoard board = load(Perft.START_FEN);
+		for (int depth = 0; depth <= 3; depth++) {
+			assertEquals(Perft.START_COUNTS[depth], Perft.perft(board, 'r', depth));
+		}
+		// board is the same after search:
+		assertEquals(Perft.START_FEN, board.toFENFromMatrix());
+	}
+	
+	@Test
+	public void generatorEqualsRules() {
+		String[] positions = {
+				Perft.START_FEN,
+				",,,,,/rrrrr,,,,,/,,,,,/,,,,,/,,,,,/bbb,,,,,",
+				",rr,,rrr,,/,,,,,/,,,,,/,,,,,/,,,,rrrrrrr,/bb,bb,bb,bb,bb,bb",
+				"rr,,,,,/,,,,,/,,,,,/,rrrrrrrrrr,,,,/,,,,,/bb,bb,bb,bb,bb,bb"
+		};
+		for (String fen : positions) {
+			assertEquals(fen, Perft.perftRules(fen, 'r', 2), Perft.perft(load(fen), 'r', 2));
+			assertEquals(fen, Perft.perftRules(fen, 'b', 2), Perft.perft(load(fen), 'b', 2));
+		}
+	}
+	
+	@Test
+	public void divide() {
+		Map<String, Long> divide = Perft.divide(load(Perft.START_FEN), 'r', 2);
+		assertEquals(Perft.START_COUNTS[1], divide.size());
+		long nodes = 0;
+		for (long count : divide.values()) {
+			nodes += count;
+		}
+		assertEquals(Perft.START_COUNTS[2], nodes);
+		assertEquals(divide, Perft.divideRules(Perft.START_FEN, 'r', 2));
+	}
+}
@@ -0,0 +1,95 @@
+package de.tuberlin.sese.swtpp.gameserver.test.deathstacks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.AlphaBetaSearch;
+import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.MonteCarloSearch;
+import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.MoveGenerator;
+import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.ParallelSearch;
+import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.Perft;
+import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.StacksBoard;
+import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.TranspositionTable;
+
+public class SearchTest {
+
+	StacksBoard load(String fen) {
+		StacksBoard board = new StacksBoard();
+		board.loadFEN(fen);
+		return board;
+	}
+	
+	@Test
+	public void findsWinningMove() {
+		StacksBoard board = load("rrrrr,,,,,/,,,,,/,,,,,/,,,,,/,,,,,/bbbbb,,,,,");
+		int move = new AlphaBetaSearch(board, new TranspositionTable(1)).search('r', 1000, 3);
+		assertEquals("a6-5-a1", MoveGenerator.toMoveString(move));
+		// board is the same after search:
+		assertEquals("rrrrr,,,,,/,,,,,/,,,,,/,,,,,/,,,,,/bbbbb,,,,,", board.toFENFromMatrix());
+	}
+	
+	@Test
+	public void noMove() {
+		StacksBoard board = load(",,,,,/,,,,,/,,,,,/,,,,,/,,,,,/rrrrrbbbbb,,,,,");
+		assertEquals(-1, new AlphaBetaSearch(board).search('b', 1000));
+	}
+	
+	@Test
+	public void sameDepthWithAndWithoutTable() {
+		AlphaBetaSearch plain = new AlphaBetaSearch(load(Perft.START_FEN));
+		AlphaBetaSearch hashed = new AlphaBetaSearch(load(Perft.START_FEN), new TranspositionTable(4));
+		plain.search('r', Long.MAX_VALUE, 4);
+		hashed.search('r', Long.MAX_VALUE, 4);
+		assertEquals(4, plain.getCompletedDepth());
+		assertEquals(4, hashed.getCompletedDepth());
+	}
+	
+	@Test
+	public void parallelSearch() {
+		StacksBoard board = load(Perft.START_FEN);
+		ParallelSearch search = new ParallelSearch(board, new TranspositionTable(4), 3);
+		int move = search.search('r', Long.MAX_VALUE, 4);
+		assertTrue(MoveGenerator.isLegal(board, 'r', move));
+		assertTrue(search.getCompletedDepth() >= 4);
+		assertEquals(Perft.START_FEN, board.toFENFromMatrix());
+		
+		board = load("rrrrr,,,,,/,,,,,/,,,,,/,,,,,/,,,,,/bbbbb,,,,,");
+		assertEquals("a6-5-a1", MoveGenerator.toMoveString(new ParallelSearch(board, null, 2).search('r', 1000, 3)));
+	}
+	
+	@Test
+	public void monteCarloFindsWinningMove() {
+		StacksBoard board = load("rrrrr,,,,,/,,,,,/,,,,,/,,,,,/,,,,,/bbbbb,,,,,");
+		String fen = board.toFENFromMatrix();
+		MonteCarloSearch[] searches = {new MonteCarloSearch(1 << 16, 2, 1L), new MonteCarloSearch(1 << 16, 2, 2L)};
+		assertEquals("a6-5-a1", MoveGenerator.toMoveString(MonteCarloSearch.parallel(searches, board, 'r', 500)));
+		assertEquals(fen, board.toFENFromMatrix());
+		assertTrue(searches[0].getPlayouts() > 0);
+		
+		// no move for red
+		assertEquals(-1, new MonteCarloSearch(1 << 16, 1, 1L).search(load(",,,,,/,,,,,/,,,,,/,,,,,/,,,,,/b,,,,,"), 'r', 100));
+	}
+	
+	@Test
+	public void tableStoresEntries() {
+		TranspositionTable table = new TranspositionTable(1);
+		int move = MoveGenerator.parse("d2-3-e3");
+		table.store(12345L, 5, TranspositionTable.LOWER, -42, move);
+		
+		long entry = table.probe(12345L);
+		assertEquals(-42, TranspositionTable.score(entry));
+		assertEquals(move, TranspositionTable.move(entry));
+		assertEquals(5, TranspositionTable.depth(entry));
+		assertEquals(TranspositionTable.LOWER, TranspositionTable.bound(entry));
+		assertEquals(0L, table.probe(54321L));
+		
+		// same slot, other position: shallower entry does not replace deeper one
+		long other = 12345L + table.getEntries();
+		table.store(other, 2, TranspositionTable.EXACT, 7, 0);
+		assertEquals(0L, table.probe(other));
+		table.store(other, 6, TranspositionTable.EXACT, 7, 0);
+		assertEquals(7, TranspositionTable.score(table.probe(other)));
+	}
+}
@@ -0,0 +1,73 @@
+package de.tuberlin.sese.swtpp.gameserver.test.deathstacks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.StacksBoard;
+
+public class StacksBoardTest {
+
+	StacksBoard board;
+	
+	@Before
+	public void setUp() {
+		board = new StacksBoard();
+	}
+	
+	@Test
+	public void loadAndRenderFEN() {
+		String fen = "rr,rr,rr,rr,rr,rr/,,,,,/,,,,,/,,,,,/,,,,,/bb,bb,bb,bb,bb,bb";
+		board.loadFEN(fen);
+		assertEquals(fen, board.toFENFromMatrix());
+		
+		fen = ",brb,,rrbbr,,/,,,,,/b,,,,,r/,,,,,/,,,,,/,,,,,bbbbbbbbbbbbrrrrrrrrrrrr";
+		board.loadFEN(fen);
+		assertEquals(fen, board.toFENFromMatrix());
+	}
+	
+	@Test
+	public void stackOrder() {
+		board.loadFEN("bbr,,,,,/,,,,,/,,,,,/,,,,,/,,,,,/,,,,,");
+		int a6 = board.getSquareInMatrix("a6");
+		assertEquals(3, board.height(a6));
+		assertEquals('b', board.top(a6));
+		assertEquals('r', board.pieceAt(a6, 0));
+		assertEquals(' ', board.top(board.getSquareInMatrix("a5")));
+	}
+	
+	@Test
+	public void makeMoveKeepsOrderOfMovedPieces() {
+		board.loadFEN("rbr,b,,,,/,,,,,/,,,,,/,,,,,/,,,,,/,,,,,");
+		board.makeMove("a6-2-b6");
+		assertEquals("r,rbb,,,,/,,,,,/,,,,,/,,,,,/,,,,,/,,,,,", board.toFENFromMatrix());
+		board.makeMove("b6-3-b3");
+		assertEquals("r,,,,,/,,,,,/,,,,,/,rbb,,,,/,,,,,/,,,,,", board.toFENFromMatrix());
+	}
+	
+	@Test
+	public void squaresOffBoard() {
+		assertEquals(-1, board.getSquareInMatrix("g1"));
+		assertEquals(-1, board.getSquareInMatrix("a7"));
+		assertEquals(-1, board.getSquareInMatrix("a0"));
+		assertEquals("f1", StacksBoard.squareName(board.getSquareInMatrix("f1")));
+	}
+	
+	@Test
+	public void hashIsUpdatedIncrementally() {
+		StacksBoard loaded = new StacksBoard();
+		board.loadFEN("rbr,b,,,,/,,,,,/,,,,,/,,,,,/,,,,,/,,,,,");
+		long start = board.hash();
+		
+		board.makeMove("a6-2-b6");
+		loaded.loadFEN(board.toFENFromMatrix());
+		assertEquals(loaded.pieceHash(), board.pieceHash());
+		assertNotEquals(loaded.hash(), board.hash()); // blue to move
+		
+		board.makeMove("b6-2-a6");
+		assertEquals(start, board.hash());
+		assertEquals(2, board.repetitions());
+	}
+}
@@ -0,0 +1,153 @@
+package de.tuberlin.sese.swtpp.gameserver.test.deathstacks;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tuberlin.sese.swtpp.gameserver.control.GameController;
+import de.tuberlin.sese.swtpp.gameserver.control.UserController;
+import de.tuberlin.sese.swtpp.gameserver.model.Game;
+import de.tuberlin.sese.swtpp.gameserver.model.Statistics;
+import de.tuberlin.sese.swtpp.gameserver.model.User;
+import de.tuberlin.sese.swtpp.gameserver.persistence.Persistence;
+
+public class StatisticsTest {
+
+	// red moves all its pieces onto the blue stack and wins
+	static final String WIN_BOARD = "rrrrr,,,,,/,,,,,/,,,,,/,,,,,/,,,,,/bbbbb,,,,,";
+	static final String WIN_MOVE = "a6-5-a1";
+
+	File dir;
+	File crash;
+
+	GameController games;
+	UserController users;
+
+	String gameType = "deathstacks";
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("statistics").toFile();
+		crash = Files.createTempDirectory("statistics-crash").toFile();
+		games = GameController.getInstance();
+		users = UserController.getInstance();
+		reset();
+	}
+
+	@After
+	public void tearDown() {
+		reset();
+		for (File d : new File[] {dir, crash}) {
+			for (File f : d.listFiles()) f.delete();
+			d.delete();
+		}
+	}
+
+	// empty server (Persistence.load does not clear what is not in the files)
+	private void reset() {
+		games.clear();
+		users.setUsers(new HashMap<String, User>());
+		Game.setLastID(0);
+	}
+
+	// files of the server as they are on disk at the moment (server is not stopped)
+	private void copyFiles(File from, File to) throws IOException {
+		for (File f : to.listFiles()) f.delete();
+		for (File f : from.listFiles()) Files.copy(f.toPath(), new File(to, f.getName()).toPath());
+	}
+
+	// counters of all users
+	private String statistics() {
+		StringBuilder text = new StringBuilder();
+		for (User u : new TreeMap<String, User>(users.getUsers()).values()) {
+			Statistics s = u.getStats();
+			text.append(u.getId()).append(" won ").append(s.numWon).append(" lost ").append(s.numLost)
+				.append(" draw ").append(s.numDraw).append(" moves ").append(s.numMoves).append('\n');
+		}
+		return text.toString();
+	}
+
+	// counters are the same as counted from the history of the users
+	private void assertStatisticsAreRebuilt() {
+		String counted = statistics();
+		for (User u : users.getUsers().values()) u.rebuildStatistics();
+		assertEquals(counted, statistics());
+	}
+
+	private int startWonGame(User red, User blue) {
+		int id = games.startGame(red, "", gameType);
+		games.joinGame(blue, gameType);
+		games.getGame(id).setBoard(WIN_BOARD);
+		return id;
+	}
+
+	@Test
+	public void countersSurviveCrashAndCompaction() throws IOException {
+		Persistence persistence = new Persistence(new File(dir, "db").getPath(), true, true);
+		persistence.load();
+		User alice = users.register("alice", "Alice", "secret");
+		User bob = users.register("bob", "Bob", "secret");
+		User carol = users.register("carol", "Carol", "secret");
+
+		// boards of won games are part of the snapshot
+		int won = startWonGame(alice, bob);
+		int lost = startWonGame(carol, alice);
+		persistence.compact();
+
+		// won by move
+		games.tryMove(alice, won, WIN_MOVE);
+		// surrender
+		int givenUp = games.startGame(bob, "", gameType);
+		games.joinGame(carol, gameType);
+		games.tryMove(bob, givenUp, "a6-1-a5");
+		games.giveUp(carol, givenUp);
+		persistence.compact();
+
+		// finished after the last compaction: counted again by the journal
+		games.tryMove(carol, lost, WIN_MOVE);
+		int draw = games.startGame(carol, "", gameType);
+		games.joinGame(alice, gameType);
+		games.callDraw(carol, draw);
+		games.callDraw(alice, draw);
+		// still running
+		int active = games.startGame(alice, "", gameType);
+		games.joinGame(bob, gameType);
+		games.tryMove(alice, active, "b6-1-b5");
+
+		String expected = statistics();
+		assertEquals("alice won 1 lost 1 draw 1 moves 2\nbob won 1 lost 1 draw 0 moves 2\n"
+				+ "carol won 1 lost 1 draw 1 moves 2\n", expected);
+		assertStatisticsAreRebuilt();
+
+		// crash: snapshot, journal and archive as they are on disk
+		copyFiles(dir, crash);
+		persistence.close();
+		reset();
+
+		persistence = new Persistence(new File(crash, "db").getPath(), true, true);
+		persistence.load();
+		assertEquals(expected, statistics());
+		assertStatisticsAreRebuilt();
+
+		// crash after a compaction of the restored server
+		persistence.compact();
+		copyFiles(crash, dir);
+		persistence.close();
+		reset();
+
+		persistence = new Persistence(new File(dir, "db").getPath(), true, true);
+		persistence.load();
+		assertEquals(expected, statistics());
+		assertStatisticsAreRebuilt();
+		persistence.close();
+	}
+}
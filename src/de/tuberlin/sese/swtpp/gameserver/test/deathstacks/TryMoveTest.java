@@ -2,10 +2,14 @@ package de.tuberlin.sese.swtpp.gameserver.test.deathstacks;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Before;
 import org.junit.Test;
 
 import de.tuberlin.sese.swtpp.gameserver.control.GameController;
+import de.tuberlin.sese.swtpp.gameserver.model.GameSnapshot;
 import de.tuberlin.sese.swtpp.gameserver.model.Player;
 import de.tuberlin.sese.swtpp.gameserver.model.User;
 import de.tuberlin.sese.swtpp.gameserver.model.deathstacks.DeathStacksGame;
@@ -274,6 +278,51 @@ public class TryMoveTest {
 		assertGameState("rr,,,,,/,,,,,/,,,,,/,rrrrrrrrrr,,,,/,,,,,/bb,bb,bb,bb,bb,bb", true, false, false, false);
 	}
 	@Test
+	public void concurrentMovesDoNotInterleave() throws InterruptedException {
+		startGame("rr,rr,rr,rr,rr,rr/,,,,,/,,,,,/,,,,,/,,,,,/bb,bb,bb,bb,bb,bb", true);
+		String[] moves = {"a6-1-a5", "b6-1-b5", "c6-1-c5", "d6-1-d5", "e6-1-e5", "f6-1-f5"};
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicInteger performed = new AtomicInteger();
+		Thread[] threads = new Thread[moves.length];
+		for (int i = 0; i < moves.length; i++) {
+			String move = moves[i];
+			threads[i] = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				if (game.tryMove(move, redPlayer)) performed.incrementAndGet();
+			});
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) thread.join();
+		// only one red move, then it's blue's turn
+		assertEquals(1, performed.get());
+		assertEquals(false, game.isRedNext());
+		assertEquals(1, game.getMoveCount());
+	}
+	@Test
+	public void snapshotIsPublishedAfterMove() {
+		startGame("rr,rr,rr,rr,rr,rr/,,,,,/,,,,,/,,,,,/,,,,,/bb,bb,bb,bb,bb,bb", true);
+		GameSnapshot before = game.getSnapshot();
+		assertEquals(true, before.isItMyTurn(redPlayer));
+		
+		assertMove("a6-1-a5", true, true);
+		GameSnapshot after = game.getSnapshot();
+		assertEquals(game.getBoard(), after.getBoard());
+		assertEquals("Started", after.getStatus());
+		assertEquals(true, after.isItMyTurn(bluePlayer));
+		assertEquals(true, after.getVersion() > before.getVersion());
+		// snapshot of before is not changed
+		assertEquals("rr,rr,rr,rr,rr,rr/,,,,,/,,,,,/,,,,,/,,,,,/bb,bb,bb,bb,bb,bb", before.getBoard());
+		
+		// failed move does not change anything
+		assertMove("a6-1-a5", true, false);
+		assertEquals(after, game.getSnapshot());
+	}
+	@Test
 	public void tryHorizontalMove() {
 		startGame(",rr,,,,/,,,,,/,,,,,/,rrr,,,,/,,,,,/bb,bb,bb,bb,bb,bb", true);
 		assertMove("b6-1-a6", true, true);
@@ -1,21 +1,20 @@
 package de.tuberlin.sese.swtpp.gameserver.web;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.json.Json;
-import javax.json.JsonArrayBuilder;
-import javax.json.JsonBuilderFactory;
-import javax.json.JsonObject;
+import javax.servlet.AsyncContext;
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
@@ -27,14 +26,16 @@ import javax.servlet.http.HttpServletResponse;
 import de.tuberlin.sese.swtpp.gameserver.control.GameController;
 import de.tuberlin.sese.swtpp.gameserver.control.UserController;
 import de.tuberlin.sese.swtpp.gameserver.model.Game;
+import de.tuberlin.sese.swtpp.gameserver.model.GameSnapshot;
 import de.tuberlin.sese.swtpp.gameserver.model.Player;
 import de.tuberlin.sese.swtpp.gameserver.model.Statistics;
 import de.tuberlin.sese.swtpp.gameserver.model.User;
+import de.tuberlin.sese.swtpp.gameserver.persistence.Persistence;
 
 /**
  * Servlet implementation class GameServerServlet
  */
-@WebServlet("/GameServerServlet")
+@WebServlet(urlPatterns = "/GameServerServlet", asyncSupported = true)
 public class GameServerServlet extends HttpServlet {
 	private static final long serialVersionUID = 1L;
     
@@ -50,6 +51,14 @@ public class GameServerServlet extends HttpServlet {
 	// controller classes
 	public  static UserController userController;
 	public static GameController gameController;
+	// snapshot and journal of all changes
+	private static Persistence persistence;
+	// changed games are pushed to subscribed clients
+	private static GameUpdates updates;
+	// ETags are only valid while this server runs (versions of games start again)
+	private static final String ETAG_EPOCH = Long.toString(System.currentTimeMillis(), 36);
+	// games of one getgamesdata request
+	public static final int MAX_BATCH = 100;
 	
     /**
      * @see HttpServlet#HttpServlet()
@@ -60,7 +69,31 @@ public class GameServerServlet extends HttpServlet {
         userController = UserController.getInstance();
         gameController = GameController.getInstance();
         
-        readState();
+        if (persistence == null) {
+        	persistence = new Persistence(DB_PATH);
+        	try {
+        		readState();
+        	} catch (RuntimeException e) {
+        		// database cannot be read: servlet is not started instead of running without users and games
+        		persistence = null;
+        		throw e;
+        	}
+        	updates = new GameUpdates(this);
+        	gameController.setListener(updates);
+        }
+    }
+    
+    /**
+     * @see HttpServlet#destroy()
+     */
+    @Override
+    public void destroy() {
+    	gameController.setListener(null);
+    	updates.close();
+    	// last snapshot, journal is closed
+    	persistence.close();
+    	persistence = null;
+    	super.destroy();
     }
 
 	/**
@@ -68,10 +101,23 @@ public class GameServerServlet extends HttpServlet {
 	 */
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 	
+		String usecase = request.getParameter("usecase");
+		
+		// pushed game data is written to the output stream without blocking (see GameUpdates): no writer
+		if ("subscribe".equals(usecase) || ("getgamedata".equals(usecase) && request.getParameter("since") != null)) {
+			User u = (User) request.getSession().getAttribute("currentUser");
+			
+			// answer with empty string when user is not logged in
+			if (u != null && usecase.equals("subscribe")) {
+				subscribe(request, response, u);
+			} else if (u != null) {
+				waitForGameData(request, response, u);
+			}
+			return;
+		}
+	
 	    PrintWriter out = response.getWriter();
 	    response.setContentType("text/plain");
-		
-		String usecase = request.getParameter("usecase");
 				
 		if (usecase == null || usecase == "" || usecase.equals("checkuser")) {
 			ServletContext sc = getServletContext();
@@ -95,12 +141,12 @@ public class GameServerServlet extends HttpServlet {
 
 			// answer with empty string when user is not logged in
 			if (u != null) { 
-				executeGameUseCase(request, out, usecase, u);
+				executeGameUseCase(request, response, out, usecase, u);
 			}
 	    }
 	}
 
-	private void executeGameUseCase(HttpServletRequest request, PrintWriter out, String usecase, User u) {
+	private void executeGameUseCase(HttpServletRequest request, HttpServletResponse response, PrintWriter out, String usecase, User u) {
 			// game-related and data-related use cases.
 			// servlet's job here is only to extract the correct parameters and to pass them on to the use case methods (see below)
 			// the result is passed back to javascript as a string (if complex: JSON)
@@ -112,9 +158,16 @@ public class GameServerServlet extends HttpServlet {
 				out.write(joinGame(u, request.getParameter("type")));
 				
 			} else if (usecase.equals("getuserdata")) {
-		    	out.write(getUserDataJSON(u));
+		    	// written straight to the response
+		    	JsonViews.userData(u, out);
 		    } else if (usecase.equals("getstatistics")) {
-		    	out.write(getStatisticsJSON(u));
+		    	Statistics s = userController.getStatistics(u);
+		    	// unchanged statistics: JSON is not built
+		    	if (!notModified(request, response, statisticsETag(u, s))) {
+		    		JsonViews.statistics(u, s, out);
+		    	}
+		    } else if (usecase.equals("getgamesdata")) {
+		    	getGamesData(request, response, out, u);
 		    } else { 
 		    	try { 
 		    		int gameID = Integer.parseInt(request.getParameter("gameID")); 		
@@ -124,7 +177,13 @@ public class GameServerServlet extends HttpServlet {
 					} else if (usecase.equals("callDraw")) { 
 					   	out.write(callDraw(u,gameID)); 		
 				    } else if (usecase.equals("getgamedata")) {
-				    	out.write(getGameData(u,gameID)); 		
+				    	// unchanged game data is not built
+				    	Game g = gameController.getGame(gameID);
+				    	GameSnapshot snapshot = g.getSnapshot();
+				    	Player p = g.getPlayer(u);
+				    	if (!notModified(request, response, gameETag(p, snapshot))) {
+				    		out.write(createGameJSON(p, snapshot));
+				    	}
 				    } else if (usecase.equals("trymove")) {
 				    	String move = request.getParameter("move");
 				    	System.out.println(move);
@@ -132,9 +191,148 @@ public class GameServerServlet extends HttpServlet {
 				    }
 		    	} catch (Exception e) { System.out.println("Illegal Input: " + request.toString());}			    				     
 		    }
-			// might be smarter to save only if there was a change
-			// and also bot moves are not saved....
-			saveState();
+			// changes (also of bots) are saved to the journal by the controllers
+	}
+
+	/**
+	 * Event stream of game data (see GameUpdates): response stays open, game data is pushed
+	 * after every change instead of being polled with getgamedata
+	 */
+	private void subscribe(HttpServletRequest request, HttpServletResponse response, User u) throws IOException {
+		int gameID;
+		try {
+			gameID = Integer.parseInt(request.getParameter("gameID"));
+		} catch (NumberFormatException e) {
+			System.out.println("Illegal Input: " + request.toString());
+			return;
+		}
+		Game g = gameController.getGame(gameID);
+		if (g == null) return;
+		
+		response.setContentType("text/event-stream;charset=UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		AsyncContext context = request.startAsync();
+		updates.subscribe(context, g.getPlayer(u), gameID);
+	}
+
+	/**
+	 * Long polling getgamedata (since = version the client has): the request is parked without a thread
+	 * until the game is changed or the poll times out (see GameUpdates.waitForChange)
+	 */
+	private void waitForGameData(HttpServletRequest request, HttpServletResponse response, User u) throws IOException {
+		int gameID;
+		long since;
+		try {
+			gameID = Integer.parseInt(request.getParameter("gameID"));
+			since = Long.parseLong(request.getParameter("since"));
+		} catch (NumberFormatException e) {
+			System.out.println("Illegal Input: " + request.toString());
+			return;
+		}
+		Game g = gameController.getGame(gameID);
+		if (g == null) return;
+		
+		response.setContentType("text/plain;charset=UTF-8");
+		AsyncContext context = request.startAsync();
+		updates.waitForChange(context, g.getPlayer(u), gameID, since);
+	}
+
+	/**
+	 * Game data of several games in one answer (JSON array, every element like getgamedata):
+	 * games of ids (comma separated, games that do not exist are left out) or all active games
+	 * of the user without ids. Every game is read once from its snapshot.
+	 */
+	private void getGamesData(HttpServletRequest request, HttpServletResponse response, PrintWriter out, User u) {
+		List<GameSnapshot> snapshots = new ArrayList<GameSnapshot>();
+		List<Player> players = new ArrayList<Player>();
+		String ids = request.getParameter("ids");
+		
+		if (ids == null) {
+			for (Player p: u.getActiveParticipations()) {
+				if (snapshots.size() == MAX_BATCH) break;
+				snapshots.add(p.getGame().getSnapshot());
+				players.add(p);
+			}
+		} else {
+			Set<Integer> gameIDs = new LinkedHashSet<Integer>();
+			try {
+				for (String id: ids.split(",")) {
+					if (!id.trim().isEmpty()) gameIDs.add(Integer.parseInt(id.trim()));
+				}
+			} catch (NumberFormatException e) {
+				System.out.println("Illegal Input: " + request.toString());
+				return;
+			}
+			for (int id: gameIDs) {
+				if (snapshots.size() == MAX_BATCH) break;
+				Game g = gameController.getGame(id);
+				if (g == null) continue;
+				snapshots.add(g.getSnapshot());
+				players.add(g.getPlayer(u));
+			}
+		}
+		
+		// unchanged if no game is changed
+		if (notModified(request, response, batchETag(players, snapshots))) return;
+		
+		// game data is built once per state (see JsonViews)
+		out.write('[');
+		for (int i = 0; i < snapshots.size(); i++) {
+			if (i > 0) out.write(',');
+			out.write(createGameJSON(players.get(i), snapshots.get(i)));
+		}
+		out.write(']');
+	}
+
+	/**
+	 * Conditional GET: sets ETag of the response, answers with 304 if the client has this version already
+	 * @return true if nothing has to be written
+	 */
+	private boolean notModified(HttpServletRequest request, HttpServletResponse response, String etag) {
+		response.setHeader("ETag", etag);
+		// browser asks every time (with If-None-Match)
+		response.setHeader("Cache-Control", "no-cache");
+		
+		String match = request.getHeader("If-None-Match");
+		if (match == null) return false;
+		for (String tag: match.split(",")) {
+			tag = tag.trim();
+			if (tag.startsWith("W/")) tag = tag.substring(2);
+			if (tag.equals(etag) || tag.equals("*")) {
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	// game data depends on the version of the game and on whose turn it is
+	private String gameETag(Player p, GameSnapshot g) {
+		return "\"" + ETAG_EPOCH + "-g" + g.getGameID() + "-" + g.getVersion() + (g.isItMyTurn(p) ? "-t" : "-w") + "\"";
+	}
+	
+	// digest of id:version:turn of every game (list itself is too long for a header with MAX_BATCH games)
+	private String batchETag(List<Player> players, List<GameSnapshot> snapshots) {
+		StringBuilder state = new StringBuilder();
+		for (int i = 0; i < snapshots.size(); i++) {
+			GameSnapshot g = snapshots.get(i);
+			state.append(g.getGameID()).append(':').append(g.getVersion()).append(':')
+				.append(g.isItMyTurn(players.get(i)) ? 't' : 'w').append(',');
+		}
+		String tag;
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(state.toString().getBytes(StandardCharsets.UTF_8));
+			tag = Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+		} catch (NoSuchAlgorithmException e) {
+			// should not happen
+			tag = state.toString();
+		}
+		return "\"" + ETAG_EPOCH + "-b" + tag + "\"";
+	}
+
+	// statistics of different users (logged in one after another in the same browser) have different ETags
+	private String statisticsETag(User u, Statistics s) {
+		return "\"" + ETAG_EPOCH + "-s" + Integer.toHexString(u.getId().hashCode()) + "-" + s.version + "\"";
 	}
 
 	private void register(HttpServletRequest request, PrintWriter out) {
@@ -157,7 +355,6 @@ public class GameServerServlet extends HttpServlet {
 		
 		if (u != null) {
 			request.getSession().setAttribute("currentUser", u);
-			saveState();
 		} else {
 			out.write("badinput");
 		}
@@ -243,30 +440,13 @@ public class GameServerServlet extends HttpServlet {
 	}
 	
 	public String createGameJSON(Player pl, int gameID) {
-		Game g = gameController.getGame(gameID);
-		
-		 JsonBuilderFactory aFactory = Json.createBuilderFactory(null);
-	   	 JsonArrayBuilder players = aFactory.createArrayBuilder();
-	   	 
-	   	 for (Player p: g.getPlayers()) {
-	   		 players.add(p.getName());		 
-	   	 }
-		
-		JsonBuilderFactory factory = Json.createBuilderFactory(null);
-  	 	 
-	   	JsonObject value = factory.createObjectBuilder()
-	   	     .add("gameID", gameID)
-	   	     .add("gameType", g.getType())
-	   	     .add("players", players)
-	   	     .add("status", g.getStatus())
-	   	     .add("info", g.gameInfo())
-	   	     .add("yourturn", g.isItMyTurn(pl))
-	   	     .add("board", g.getBoard())
-	   	     .build();
-	   	
-   	
-	//   	System.out.println(value.toString());
-	   	return value.toString();
+		// published state of the game: no lock, nothing computed again
+		return createGameJSON(pl, gameController.getGame(gameID).getSnapshot());
+	}
+	
+	public String createGameJSON(Player pl, GameSnapshot g) {
+		// built once per state of the game (see JsonViews)
+		return JsonViews.game(g, g.isItMyTurn(pl));
 	}
 	
 	public String createGameJSON(User u, int gameID) {
@@ -275,92 +455,29 @@ public class GameServerServlet extends HttpServlet {
 	}
 	
 	public String getUserDataJSON(User u) {
-	 	 JsonBuilderFactory factory = Json.createBuilderFactory(null);
-   	 
-	   	 JsonArrayBuilder games = factory.createArrayBuilder();
-	   	 
-	   	 for (Player p: u.getActiveParticipations()) {
-	   		 if (p.getGame().isStarted()) {
-	   			 games.add(factory.createArrayBuilder().add(p.getGame().getGameID())
-	   					 							   .add(p.getGame().getType())
-	   					                               .add(p.getGame().getPlayers().stream().map(pl -> pl.getName()).reduce((x,y) -> x+ " vs " + y).get()));
-	   		 } else {
-	   			 games.add(factory.createArrayBuilder().add(p.getGame().getGameID())
-	   					 							   .add(p.getGame().getType())							
-	   					                               .add("Waiting for Player."));
-	   		 }
-	   		 
-	   	 }
-	   	 	    	 
-	   	 JsonObject value = factory.createObjectBuilder()
-	   	     .add("userID", u.getId())
-	   	     .add("userFirstName", u.getName())
-	   	     .add("games", games)
-	   	     .build();
-	   	
-	   	return value.toString();
+		StringWriter json = new StringWriter();
+		JsonViews.userData(u, new PrintWriter(json));
+		return json.toString();
 	}
 	
 	public String getStatisticsJSON(User u) {
-		Statistics s = userController.getStatistics(u);
-		
-	 	 JsonBuilderFactory factory = Json.createBuilderFactory(null);
-	   	 	 	    	 
-	   	 JsonObject value = factory.createObjectBuilder()
-	   	     .add("userFirstName", u.getName())
-	   	     .add("nbWon", s.numWon)
-	   	     .add("nbLost", s.numLost)
-	   	     .add("nbDraw", s.numDraw)
-	   	     .add("avgMoves", s.avgMoves)
-	   	     .add("fracWon", s.percentWon)
-	   	     .add("fracDraw", s.percentDraw)
-	   	     .add("fracLost", s.percentLost)
-	   	     .build();
-	   	
-	//   	System.out.println(value.toString());
-	   	return value.toString();
+		StringWriter json = new StringWriter();
+		JsonViews.statistics(u, userController.getStatistics(u), new PrintWriter(json));
+		return json.toString();
 	}
 	
 
+	/**
+	 * Writes snapshot of all users and games (the journal starts again)
+	 */
 	public void saveState() {
-		try {
-			FileOutputStream fos = new FileOutputStream(DB_PATH);
-			ObjectOutputStream oos = new ObjectOutputStream(fos);
-			
-			oos.writeObject(UserController.getInstance().getUsers());
-			oos.writeObject(GameController.getInstance().getGames());
-			oos.writeInt(Game.getLastID());
-			
-			oos.close();
-			fos.close();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		persistence.compact();
 	}
 
-	@SuppressWarnings(value = { "unchecked" })
+	/**
+	 * Reads snapshot and all changes since from the journal
+	 */
 	public void readState () {
-		FileInputStream fis;
-		try {
-			fis = new FileInputStream(DB_PATH);
-			ObjectInputStream ois = new ObjectInputStream(fis);
-			
-			
-			UserController.getInstance().setUsers((HashMap<String, User>)ois.readObject());
-			GameController.getInstance().setGames((LinkedList<Game>)ois.readObject());
-			Game.setLastID(ois.readInt());
-
-			ois.close();
-			fis.close();
-			
-		} catch (FileNotFoundException e) {
-			System.out.println("No database found. Starting new...");
-		} catch (IOException e) {
-			e.printStackTrace();
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
-		} 
+		persistence.load();
 	}
 }
@@ -0,0 +1,288 @@
+package de.tuberlin.sese.swtpp.gameserver.web;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+import de.tuberlin.sese.swtpp.gameserver.model.Game;
+import de.tuberlin.sese.swtpp.gameserver.model.Player;
+
+/**
+ * Pushes game data to clients with Server-Sent Events instead of letting them poll getgamedata.
+ * A client subscribes to one game (usecase=subscribe, see GameServerServlet) and keeps the response
+ * open (async servlet). It gets the current game data at once and again after every change of the
+ * game (GameController tells the listener when the change is saved). When the game is over the
+ * stream is closed, clients connect again after a timeout (EventSource does this by itself).
+ *
+ * Long polling (getgamedata with since=version, see waitForChange) uses the same way: the request is
+ * parked without a thread until the version of the game is not the one the client has or the poll
+ * times out, then it is answered with the current game data like getgamedata.
+ *
+ * Everything about subscriptions runs on one push thread: no locks on the subscriptions and events
+ * of one stream are never mixed. Changes of a game that are not pushed yet are pushed once with the
+ * current snapshot of the game.
+ *
+ * Events are written without blocking (non-blocking output of Servlet 3.1): the push thread never
+ * waits for a slow client. What the client does not take at once is queued and written by the
+ * container when the client can take more (onWritePossible). A client that does not read
+ * MAX_QUEUED events is closed like a client that is gone, EventSource connects again.
+ */
+public class GameUpdates implements Consumer<Game> {
+
+	// connection is closed after this time without a finished game, client connects again
+	public static final long TIMEOUT_MILLIS = 5 * 60 * 1000L;
+	// parked poll is answered after this time even if nothing changed
+	public static final long POLL_TIMEOUT_MILLIS = 30 * 1000L;
+	// events not taken by the client, stream is closed when one more is pushed
+	public static final int MAX_QUEUED = 16;
+
+	private final GameServerServlet servlet;
+
+	private final ExecutorService pusher = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "game-updates");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	// open streams per game ID, used by push thread only
+	private final Map<Integer, List<Subscriber>> subscribers = new HashMap<Integer, List<Subscriber>>();
+	// changed games waiting to be pushed
+	private final Set<Integer> pending = ConcurrentHashMap.newKeySet();
+
+	public GameUpdates(GameServerServlet servlet) {
+		this.servlet = servlet;
+	}
+
+	/*******************************
+	 * Subscriptions
+	 ******************************/
+
+	/**
+	 * Stream of game data for player (null if user is not a player of the game), response is
+	 * kept open by the caller (request.startAsync, getWriter must not be used)
+	 */
+	public void subscribe(AsyncContext context, Player player, int gameID) throws IOException {
+		Subscriber s = new Subscriber(context, player, gameID, false);
+		context.setTimeout(TIMEOUT_MILLIS);
+		context.addListener(s);
+		s.out.setWriteListener(s);
+		execute(() -> {
+			subscribers.computeIfAbsent(gameID, id -> new ArrayList<Subscriber>()).add(s);
+			push(gameID, s);
+		});
+	}
+	
+	/**
+	 * Game data is written to the response when the version of the game is not the given one anymore
+	 * (versions start again when the server is started, so any other version is newer for the client).
+	 * Response is kept open by the caller (request.startAsync, getWriter must not be used).
+	 */
+	public void waitForChange(AsyncContext context, Player player, int gameID, long version) throws IOException {
+		Subscriber s = new Subscriber(context, player, gameID, true);
+		context.setTimeout(POLL_TIMEOUT_MILLIS);
+		context.addListener(s);
+		s.out.setWriteListener(s);
+		execute(() -> {
+			subscribers.computeIfAbsent(gameID, id -> new ArrayList<Subscriber>()).add(s);
+			// changed before the request was parked
+			Game g = GameServerServlet.gameController.getGame(gameID);
+			if (g == null || g.getSnapshot().getVersion() != version) push(gameID, s);
+		});
+	}
+
+	/**
+	 * Game was changed (called by GameController after change is saved)
+	 */
+	@Override
+	public void accept(Game g) {
+		int gameID = g.getGameID();
+		if (pending.add(gameID)) {
+			execute(() -> {
+				pending.remove(gameID);
+				push(gameID, null);
+			});
+		}
+	}
+
+	/**
+	 * Closes all streams (server is stopped)
+	 */
+	public void close() {
+		execute(() -> {
+			for (List<Subscriber> streams : subscribers.values()) {
+				for (Subscriber s : streams) s.complete();
+			}
+			subscribers.clear();
+		});
+		pusher.shutdown();
+		try {
+			pusher.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*******************************
+	 * Push thread
+	 ******************************/
+
+	private void execute(Runnable task) {
+		try {
+			pusher.execute(task);
+		} catch (RuntimeException e) {
+			// closed: nothing is pushed anymore
+		}
+	}
+
+	// current game data to all streams of game (only to one if not null), closed if game is over
+	// (after the data is written) or client is gone or too slow (at once)
+	private void push(int gameID, Subscriber only) {
+		List<Subscriber> streams = subscribers.get(gameID);
+		if (streams == null) return;
+
+		Game g = GameServerServlet.gameController.getGame(gameID);
+		boolean over = g == null || g.getSnapshot().isFinished();
+		Iterator<Subscriber> it = streams.iterator();
+		while (it.hasNext()) {
+			Subscriber s = it.next();
+			if (only != null && s != only) continue;
+			if (g == null || !s.send(servlet.createGameJSON(s.player, gameID))) {
+				s.complete();
+			} else if (over || s.poll) {
+				s.finish();
+			} else {
+				continue;
+			}
+			it.remove();
+		}
+		if (streams.isEmpty()) subscribers.remove(gameID);
+	}
+
+	private void remove(Subscriber s) {
+		List<Subscriber> streams = subscribers.get(s.gameID);
+		if (streams != null && streams.remove(s) && streams.isEmpty()) subscribers.remove(s.gameID);
+	}
+
+	/**
+	 * Open event stream or parked poll (answered once) of one client
+	 */
+	private class Subscriber implements AsyncListener, WriteListener {
+
+		final AsyncContext context;
+		final ServletOutputStream out;
+		final Player player;
+		final int gameID;
+		final boolean poll;
+		// events the client did not take yet
+		final Deque<byte[]> queue = new ArrayDeque<byte[]>();
+		// completed when the queue is written
+		boolean closing = false;
+		boolean completed = false;
+
+		Subscriber(AsyncContext context, Player player, int gameID, boolean poll) throws IOException {
+			this.context = context;
+			this.out = context.getResponse().getOutputStream();
+			this.player = player;
+			this.gameID = gameID;
+			this.poll = poll;
+		}
+
+		// one event (game data for poll) is queued and written as far as possible without blocking,
+		// false if client is gone, too slow or answered already
+		synchronized boolean send(String json) {
+			if (completed || closing || queue.size() == MAX_QUEUED) return false;
+			queue.add((poll ? json : "data: " + json + "\n\n").getBytes(StandardCharsets.UTF_8));
+			return write();
+		}
+
+		// queued events while the container takes them without blocking, rest is written by
+		// onWritePossible (isReady false: container calls it when the client can take more)
+		private synchronized boolean write() {
+			try {
+				while (out.isReady()) {
+					byte[] event = queue.poll();
+					if (event == null) {
+						if (closing) complete();
+						return true;
+					}
+					out.write(event);
+					if (out.isReady()) out.flush();
+				}
+				return true;
+			} catch (IOException | IllegalStateException e) {
+				return false;
+			}
+		}
+
+		// completed after the queued events are written
+		synchronized void finish() {
+			closing = true;
+			if (!write()) complete();
+		}
+
+		synchronized void complete() {
+			if (completed) return;
+			completed = true;
+			try {
+				context.complete();
+			} catch (IllegalStateException e) {
+				// closed by container already
+			}
+		}
+
+		// called by the container: stream is removed on the push thread
+		@Override
+		public void onComplete(AsyncEvent event) {
+			execute(() -> remove(this));
+		}
+
+		@Override
+		public void onWritePossible() {
+			if (!write()) complete();
+		}
+
+		@Override
+		public void onError(Throwable t) {
+			complete();
+		}
+
+		// container expects the stream to be completed in the callback, poll gets the unchanged game data
+		// (if the client takes it at once)
+		@Override
+		public void onTimeout(AsyncEvent event) {
+			Game g = poll ? GameServerServlet.gameController.getGame(gameID) : null;
+			if (g != null) send(servlet.createGameJSON(player, gameID));
+			complete();
+			execute(() -> remove(this));
+		}
+
+		@Override
+		public void onError(AsyncEvent event) {
+			complete();
+			execute(() -> remove(this));
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+		}
+	}
+
+}
@@ -0,0 +1,208 @@
+package de.tuberlin.sese.swtpp.gameserver.web;
+
+import java.io.CharArrayWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonBuilderFactory;
+import javax.json.JsonObject;
+
+import de.tuberlin.sese.swtpp.gameserver.control.GameController;
+import de.tuberlin.sese.swtpp.gameserver.control.UserController;
+import de.tuberlin.sese.swtpp.gameserver.model.Bot;
+import de.tuberlin.sese.swtpp.gameserver.model.Game;
+import de.tuberlin.sese.swtpp.gameserver.model.GameSnapshot;
+import de.tuberlin.sese.swtpp.gameserver.model.Player;
+import de.tuberlin.sese.swtpp.gameserver.model.Statistics;
+import de.tuberlin.sese.swtpp.gameserver.model.User;
+
+/**
+ * Compares the JSON answers of getgamedata, getuserdata and getstatistics built like before JsonViews
+ * (builder factories per request, object tree, toString) with JsonViews (one generator factory,
+ * written to the response, game data built once per state): time and allocated bytes per request.
+ * getgamedata is measured for an unchanged game (text of snapshot) and for a changed game (new snapshot
+ * every request). Results of both ways are checked to be the same.
+ *
+ * Usage: JsonBenchmark [requests] [active games of user]
+ */
+public final class JsonBenchmark {
+
+	private static final int WARMUP_ROUNDS = 3;
+
+	private JsonBenchmark() {
+	}
+
+	public static void main(String[] args) {
+		int requests = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int gameCount = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		Bot.pause();
+		UserController users = UserController.getInstance();
+		GameController games = GameController.getInstance();
+		User red = new User("Red Player", "red");
+		User blue = new User("Blue Player", "blue");
+		int gameID = -1;
+		for (int i = 0; i < gameCount; i++) {
+			gameID = games.startGame(red, "", "deathstacks");
+			games.joinGame(blue, "deathstacks");
+		}
+		games.tryMove(red, gameID, "a6-1-a5");
+		red.getStats().set(17, 4, 3, 812);
+		Game game = games.getGame(gameID);
+		Player player = game.getPlayer(red);
+		GameSnapshot current = game.getSnapshot();
+		Statistics stats = users.getStatistics(red);
+
+		// same text both ways
+		check("getgamedata", oldGame(player, current), JsonViews.game(copy(current), current.isItMyTurn(player)));
+		check("getuserdata", oldUserData(red), write(w -> JsonViews.userData(red, w)));
+		check("getstatistics", oldStatistics(red, stats), write(w -> JsonViews.statistics(red, stats, w)));
+
+		CharArrayWriter buffer = new CharArrayWriter(1024);
+		PrintWriter response = new PrintWriter(buffer);
+		List<Case> cases = new ArrayList<Case>();
+		cases.add(new Case("getgamedata unchanged", () -> oldGame(player, current).length(),
+				() -> { buffer.reset(); response.write(JsonViews.game(current, current.isItMyTurn(player))); return buffer.size(); }));
+		cases.add(new Case("getgamedata changed", () -> oldGame(player, copy(current)).length(),
+				() -> { buffer.reset(); response.write(JsonViews.game(copy(current), current.isItMyTurn(player))); return buffer.size(); }));
+		cases.add(new Case("getuserdata", () -> oldUserData(red).length(),
+				() -> { buffer.reset(); JsonViews.userData(red, response); return buffer.size(); }));
+		cases.add(new Case("getstatistics", () -> oldStatistics(red, stats).length(),
+				() -> { buffer.reset(); JsonViews.statistics(red, stats, response); return buffer.size(); }));
+
+		System.out.println(requests + " requests, " + gameCount + " active games of user");
+		System.out.println();
+		System.out.println(String.format("%-22s %12s %12s %12s %12s", "endpoint", "before ns", "before B", "after ns", "after B"));
+		for (Case c : cases) {
+			for (int round = 0; round < WARMUP_ROUNDS; round++) {
+				measure(c.before, requests);
+				measure(c.after, requests);
+			}
+			long[] before = measure(c.before, requests);
+			long[] after = measure(c.after, requests);
+			System.out.println(String.format("%-22s %12d %12d %12d %12d", c.name, before[0], before[1], after[0], after[1]));
+		}
+	}
+
+	/*******************************
+	 * Measurement
+	 ******************************/
+
+	private interface Request {
+		int run();
+	}
+
+	private interface Output {
+		void write(PrintWriter w);
+	}
+
+	private static final class Case {
+		final String name;
+		final Request before;
+		final Request after;
+
+		Case(String name, Request before, Request after) {
+			this.name = name;
+			this.before = before;
+			this.after = after;
+		}
+	}
+
+	// time (ns) and allocated bytes per request
+	private static long[] measure(Request request, int requests) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		long sink = 0;
+		long allocated = threads.getThreadAllocatedBytes(thread);
+		long time = System.nanoTime();
+		for (int i = 0; i < requests; i++) sink += request.run();
+		time = System.nanoTime() - time;
+		allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+		if (sink == 42) System.out.println();
+		return new long[] {time / requests, allocated / requests};
+	}
+
+	private static String write(Output output) {
+		CharArrayWriter w = new CharArrayWriter();
+		output.write(new PrintWriter(w));
+		return w.toString();
+	}
+
+	private static void check(String name, String before, String after) {
+		if (!before.equals(after)) {
+			System.out.println(name + " differs:\n  " + before + "\n  " + after);
+		}
+	}
+
+	// same state, nothing built yet (like the snapshot of a changed game)
+	private static GameSnapshot copy(GameSnapshot g) {
+		return new GameSnapshot(g.getGameID(), g.getType(), g.getPlayers(), g.getBoard(), g.getStatus(), g.getInfo(),
+				g.isStarted(), g.isFinished(), g.getNextPlayer(), g.getVersion());
+	}
+
+	/*******************************
+	 * Before JsonViews
+	 ******************************/
+
+	private static String oldGame(Player pl, GameSnapshot g) {
+		JsonBuilderFactory aFactory = Json.createBuilderFactory(null);
+		JsonArrayBuilder players = aFactory.createArrayBuilder();
+		for (String name : g.getPlayers()) {
+			players.add(name);
+		}
+		JsonBuilderFactory factory = Json.createBuilderFactory(null);
+		JsonObject value = factory.createObjectBuilder()
+				.add("gameID", g.getGameID())
+				.add("gameType", g.getType())
+				.add("players", players)
+				.add("status", g.getStatus())
+				.add("info", g.getInfo())
+				.add("yourturn", g.isItMyTurn(pl))
+				.add("board", g.getBoard())
+				.add("version", g.getVersion())
+				.build();
+		return value.toString();
+	}
+
+	private static String oldUserData(User u) {
+		JsonBuilderFactory factory = Json.createBuilderFactory(null);
+		JsonArrayBuilder games = factory.createArrayBuilder();
+		for (Player p : u.getActiveParticipations()) {
+			if (p.getGame().isStarted()) {
+				games.add(factory.createArrayBuilder().add(p.getGame().getGameID())
+						.add(p.getGame().getType())
+						.add(p.getGame().getPlayers().stream().map(pl -> pl.getName()).reduce((x, y) -> x + " vs " + y).get()));
+			} else {
+				games.add(factory.createArrayBuilder().add(p.getGame().getGameID())
+						.add(p.getGame().getType())
+						.add("Waiting for Player."));
+			}
+		}
+		JsonObject value = factory.createObjectBuilder()
+				.add("userID", u.getId())
+				.add("userFirstName", u.getName())
+				.add("games", games)
+				.build();
+		return value.toString();
+	}
+
+	private static String oldStatistics(User u, Statistics s) {
+		JsonBuilderFactory factory = Json.createBuilderFactory(null);
+		JsonObject value = factory.createObjectBuilder()
+				.add("userFirstName", u.getName())
+				.add("nbWon", s.numWon)
+				.add("nbLost", s.numLost)
+				.add("nbDraw", s.numDraw)
+				.add("avgMoves", s.avgMoves)
+				.add("fracWon", s.percentWon)
+				.add("fracDraw", s.percentDraw)
+				.add("fracLost", s.percentLost)
+				.build();
+		return value.toString();
+	}
+
+}
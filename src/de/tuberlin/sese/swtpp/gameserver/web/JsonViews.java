@@ -0,0 +1,191 @@
+package de.tuberlin.sese.swtpp.gameserver.web;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+
+import de.tuberlin.sese.swtpp.gameserver.model.Game;
+import de.tuberlin.sese.swtpp.gameserver.model.GameSnapshot;
+import de.tuberlin.sese.swtpp.gameserver.model.Player;
+import de.tuberlin.sese.swtpp.gameserver.model.Statistics;
+import de.tuberlin.sese.swtpp.gameserver.model.User;
+
+/**
+ * JSON answers of the web interface, same text as javax.json built them before (see JsonBenchmark).
+ * --> no builder factories and no object tree: values are written straight to the writer (response),
+ * strings are escaped like javax.json does (its generator allocates a new 16 KB buffer every time)
+ * --> game data is built once per state of the game and kept with its snapshot (only "yourturn"
+ * depends on the player: one text for each value), every state change builds it again
+ */
+final class JsonViews {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private JsonViews() {
+	}
+
+	/*******************************
+	 * Game
+	 ******************************/
+
+	/**
+	 * @return game data of snapshot, built at the first request for it
+	 */
+	static String game(GameSnapshot g, boolean yourTurn) {
+		Object view = g.getView();
+		String[] json;
+		if (view instanceof String[]) {
+			json = (String[]) view;
+		} else {
+			// requests at the same time: one array is lost, its text is built again
+			json = new String[2];
+			g.setView(json);
+		}
+		int i = yourTurn ? 1 : 0;
+		String text = json[i];
+		if (text == null) {
+			text = buildGame(g, yourTurn);
+			json[i] = text;
+		}
+		return text;
+	}
+
+	private static String buildGame(GameSnapshot g, boolean yourTurn) {
+		StringWriter text = new StringWriter(256);
+		PrintWriter out = new PrintWriter(text);
+		out.write("{\"gameID\":");
+		out.print(g.getGameID());
+		out.write(",\"gameType\":");
+		string(out, g.getType());
+		out.write(",\"players\":[");
+		boolean first = true;
+		for (String name : g.getPlayers()) {
+			if (!first) out.write(',');
+			string(out, name);
+			first = false;
+		}
+		out.write("],\"status\":");
+		string(out, g.getStatus());
+		out.write(",\"info\":");
+		string(out, g.getInfo());
+		out.write(",\"yourturn\":");
+		out.print(yourTurn);
+		out.write(",\"board\":");
+		string(out, g.getBoard());
+		out.write(",\"version\":");
+		out.print(g.getVersion());
+		out.write('}');
+		out.flush();
+		return text.toString();
+	}
+
+	/*******************************
+	 * User
+	 ******************************/
+
+	/**
+	 * Writes active games of user
+	 */
+	static void userData(User u, PrintWriter out) {
+		out.write("{\"userID\":");
+		string(out, u.getId());
+		out.write(",\"userFirstName\":");
+		string(out, u.getName());
+		out.write(",\"games\":[");
+		boolean first = true;
+		for (Player p : u.getActiveParticipations()) {
+			Game g = p.getGame();
+			if (!first) out.write(',');
+			first = false;
+			out.write('[');
+			out.print(g.getGameID());
+			out.write(',');
+			string(out, g.getType());
+			out.write(',');
+			if (g.isStarted()) {
+				// "name vs name"
+				out.write('"');
+				boolean firstPlayer = true;
+				for (Player pl : g.getPlayers()) {
+					if (!firstPlayer) out.write(" vs ");
+					escaped(out, pl.getName());
+					firstPlayer = false;
+				}
+				out.write('"');
+			} else {
+				string(out, "Waiting for Player.");
+			}
+			out.write(']');
+		}
+		out.write("]}");
+		out.flush();
+	}
+
+	/**
+	 * Writes statistics of user
+	 */
+	static void statistics(User u, Statistics s, PrintWriter out) {
+		out.write("{\"userFirstName\":");
+		string(out, u.getName());
+		out.write(",\"nbWon\":");
+		out.print(s.numWon);
+		out.write(",\"nbLost\":");
+		out.print(s.numLost);
+		out.write(",\"nbDraw\":");
+		out.print(s.numDraw);
+		out.write(",\"avgMoves\":");
+		number(out, s.avgMoves);
+		out.write(",\"fracWon\":");
+		number(out, s.percentWon);
+		out.write(",\"fracDraw\":");
+		number(out, s.percentDraw);
+		out.write(",\"fracLost\":");
+		number(out, s.percentLost);
+		out.write('}');
+		out.flush();
+	}
+
+	/*******************************
+	 * Values
+	 ******************************/
+
+	private static void string(PrintWriter out, String value) {
+		out.write('"');
+		escaped(out, value);
+		out.write('"');
+	}
+
+	// like javax.json: quote, backslash, control characters (also U+0080..U+009F) and U+2000..U+20FF are escaped
+	private static void escaped(PrintWriter out, String value) {
+		int start = 0;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c >= 0x20 && c != '"' && c != '\\' && (c < 0x80 || c >= 0xa0) && (c < 0x2000 || c >= 0x2100)) continue;
+
+			out.write(value, start, i - start);
+			start = i + 1;
+			switch (c) {
+				case '"': out.write("\\\""); break;
+				case '\\': out.write("\\\\"); break;
+				case '\b': out.write("\\b"); break;
+				case '\f': out.write("\\f"); break;
+				case '\n': out.write("\\n"); break;
+				case '\r': out.write("\\r"); break;
+				case '\t': out.write("\\t"); break;
+				default:
+					out.write("\\u");
+					out.write(HEX[c >> 12]);
+					out.write(HEX[(c >> 8) & 0xf]);
+					out.write(HEX[(c >> 4) & 0xf]);
+					out.write(HEX[c & 0xf]);
+			}
+		}
+		out.write(value, start, value.length() - start);
+	}
+
+	// like javax.json (JsonNumber of BigDecimal)
+	private static void number(PrintWriter out, double value) {
+		out.write(BigDecimal.valueOf(value).toString());
+	}
+
+}